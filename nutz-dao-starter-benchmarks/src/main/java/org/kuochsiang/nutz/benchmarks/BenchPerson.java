@@ -0,0 +1,79 @@
+package org.kuochsiang.nutz.benchmarks;
+
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Id;
+import org.nutz.dao.entity.annotation.Many;
+import org.nutz.dao.entity.annotation.Table;
+
+import java.util.Date;
+import java.util.List;
+
+@Table("bench_person")
+public class BenchPerson {
+
+    @Id
+    private long id;
+
+    @Column
+    private String name;
+
+    @Column
+    private int age;
+
+    @Column
+    private String email;
+
+    @Column
+    private Date createTime;
+
+    @Many(field = "personId")
+    private List<BenchPet> pets;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    public List<BenchPet> getPets() {
+        return pets;
+    }
+
+    public void setPets(List<BenchPet> pets) {
+        this.pets = pets;
+    }
+}
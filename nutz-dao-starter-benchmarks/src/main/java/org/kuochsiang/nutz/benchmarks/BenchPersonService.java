@@ -0,0 +1,11 @@
+package org.kuochsiang.nutz.benchmarks;
+
+import org.kuochsiang.nutz.common.BaseServiceImpl;
+import org.nutz.dao.Dao;
+
+public class BenchPersonService extends BaseServiceImpl<BenchPerson> {
+
+    public BenchPersonService(Dao dao) {
+        super(dao);
+    }
+}
@@ -0,0 +1,45 @@
+package org.kuochsiang.nutz.benchmarks;
+
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Id;
+import org.nutz.dao.entity.annotation.Index;
+import org.nutz.dao.entity.annotation.Table;
+import org.nutz.dao.entity.annotation.TableIndexes;
+
+@Table("bench_pet")
+@TableIndexes({@Index(name = "idx_bench_pet_person", fields = {"personId"}, unique = false)})
+public class BenchPet {
+
+    @Id
+    private long id;
+
+    @Column
+    private long personId;
+
+    @Column
+    private String name;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(long personId) {
+        this.personId = personId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
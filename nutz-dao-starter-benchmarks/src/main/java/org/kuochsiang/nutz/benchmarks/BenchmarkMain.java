@@ -0,0 +1,32 @@
+package org.kuochsiang.nutz.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 运行全部测试, 参数与 JMH 命令行相同。
+ * 未指定 -rf/-rff 时结果以 JSON 格式写入 jmh-result.json, 便于不同版本之间对比。
+ * JDK 9 以上为测试进程开放 java.lang, Nutz 初始化时需要反射访问
+ */
+public class BenchmarkMain {
+
+    public static final String DEFAULT_RESULT = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmd);
+        if (!cmd.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmd.getResult().hasValue()) {
+            builder.result(DEFAULT_RESULT);
+        }
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            builder.jvmArgsAppend("--add-opens", "java.base/java.lang=ALL-UNNAMED");
+        }
+        new Runner(builder.build()).run();
+    }
+}
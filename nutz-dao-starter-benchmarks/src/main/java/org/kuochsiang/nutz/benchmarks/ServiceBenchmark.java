@@ -0,0 +1,174 @@
+package org.kuochsiang.nutz.benchmarks;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.kuochsiang.nutz.common.BaseServiceImpl;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.Condition;
+import org.nutz.dao.QueryResult;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.pager.Pager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BaseServiceImpl 常用方法在内存 H2 上的吞吐量
+ * <p>
+ * 每种数据量单独建库并预置数据: bench_person rows 条, 每人一条 bench_pet。
+ * 分页类测试每次读取一页(100条), 页码随机
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServiceBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final int SEED_BATCH = 10000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private NutDao dao;
+
+    private BenchPersonService service;
+
+    /**
+     * 关闭批量加载关联对象, 作为 N+1 对照
+     */
+    private BenchPersonService perRowLinks;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:bench" + rows + ";DB_CLOSE_DELAY=-1");
+        dao = new NutDao(ds);
+        dao.create(BenchPerson.class, true);
+        dao.create(BenchPet.class, true);
+        service = new BenchPersonService(dao);
+        perRowLinks = new BenchPersonService(dao);
+        perRowLinks.setLinkBatchSize(0);
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.execute(Sqls.create("DROP ALL OBJECTS"));
+    }
+
+    private void seed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Date now = new Date();
+        for (int from = 0; from < rows; from += SEED_BATCH) {
+            int size = Math.min(SEED_BATCH, rows - from);
+            List<BenchPerson> people = new ArrayList<BenchPerson>(size);
+            for (int i = 0; i < size; i++) {
+                BenchPerson p = new BenchPerson();
+                p.setName("person" + (from + i));
+                p.setAge(random.nextInt(100));
+                p.setEmail("person" + (from + i) + "@example.com");
+                p.setCreateTime(now);
+                people.add(p);
+            }
+            service.insertBatch(people, SEED_BATCH);
+            List<BenchPet> pets = new ArrayList<BenchPet>(size);
+            for (BenchPerson p : people) {
+                BenchPet pet = new BenchPet();
+                pet.setPersonId(p.getId());
+                pet.setName("pet" + p.getId());
+                pets.add(pet);
+            }
+            dao.fastInsert(pets);
+        }
+    }
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, rows + 1);
+    }
+
+    private Pager randomPager() {
+        return new Pager(ThreadLocalRandom.current().nextInt(1, rows / PAGE_SIZE + 1), PAGE_SIZE);
+    }
+
+    private Condition pageFromRandomId() {
+        return Cnd.where("id", ">", randomId() - PAGE_SIZE).asc("id");
+    }
+
+    @Benchmark
+    public BenchPerson fetch() {
+        return service.fetch(randomId());
+    }
+
+    @Benchmark
+    public List<BenchPerson> query() {
+        return service.query(pageFromRandomId(), new Pager(1, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public QueryResult queryPager() {
+        return service.queryPager(randomPager(), Cnd.orderBy().asc("id"));
+    }
+
+    @Benchmark
+    public List<BenchPerson> queryLinks() {
+        return service.query(pageFromRandomId(), "pets", new Pager(1, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public List<BenchPerson> queryLinksPerRow() {
+        return perRowLinks.query(pageFromRandomId(), "pets", new Pager(1, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public List<BenchPerson> queryProjection() {
+        return service.query(pageFromRandomId(), null, "^(id|name)$", new Pager(1, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public List<BenchPerson> getByList() {
+        Map<String, Object> params = new HashMap<String, Object>();
+        long start = randomId();
+        params.put("start", start);
+        params.put("end", start + PAGE_SIZE);
+        return service.getByList("select * from bench_person where id >= @start and id < @end", params);
+    }
+
+    @Benchmark
+    public QueryResult getPagerByList() {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("age", ThreadLocalRandom.current().nextInt(100));
+        return service.getPagerByList("select * from bench_person where age > @age order by id", params, randomPager());
+    }
+
+    @Benchmark
+    public BenchPerson insertOrUpdate() {
+        BenchPerson p = new BenchPerson();
+        p.setId(randomId());
+        p.setName("updated");
+        p.setAge(ThreadLocalRandom.current().nextInt(100));
+        p.setCreateTime(new Date());
+        return BaseServiceImpl.insertOrUpdate(dao, p);
+    }
+}
@@ -0,0 +1,62 @@
+package org.kuochsiang.nutz.autoconfigure;
+
+import org.kuochsiang.nutz.common.BaseServiceImpl;
+import org.kuochsiang.nutz.common.LruEntityCache;
+import org.kuochsiang.nutz.common.ServiceMetrics;
+import org.kuochsiang.nutz.common.TableChangeInterceptor;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * 按 {@link NutzServiceProperties} 配置容器中的 BaseServiceImpl, 并为它们的 Dao 安装 {@link TableChangeInterceptor},
+ * 使任意 service 或自定义 Sql 的写入都能让缓存失效
+ */
+@Configuration
+@EnableConfigurationProperties(NutzServiceProperties.class)
+public class NutzServiceAutoConfiguration {
+
+    @Bean
+    public SmartInitializingSingleton nutzServiceConfigurer(final NutzServiceProperties properties,
+                                                            final ListableBeanFactory beanFactory) {
+        return new SmartInitializingSingleton() {
+            public void afterSingletonsInstantiated() {
+                for (BaseServiceImpl<?> service : beanFactory.getBeansOfType(BaseServiceImpl.class).values()) {
+                    configure(service, properties);
+                }
+            }
+        };
+    }
+
+    /**
+     * BeanPostProcessor 早于普通 bean 创建, 配置直接从 Environment 读取, ServiceMetrics 延迟到第一个 service 初始化时获取
+     */
+    @Bean
+    public static ServiceMetricsPostProcessor nutzServiceMetricsPostProcessor(ObjectProvider<ServiceMetrics> metrics,
+                                                                              Environment environment) {
+        RelaxedPropertyResolver resolver = new RelaxedPropertyResolver(environment, "nutz.service.");
+        return new ServiceMetricsPostProcessor(metrics,
+                resolver.getProperty("metrics.enabled", Boolean.class, true),
+                resolver.getProperty("slow-query-threshold", Long.class, 0L));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static void configure(BaseServiceImpl service, NutzServiceProperties properties) {
+        TableChangeInterceptor.install(service.dao());
+        if (service.getEntityClass() == null) {
+            return;
+        }
+        if (properties.isIdentityMap()) {
+            service.setIdentityMap(true);
+        }
+        NutzServiceProperties.Cache cache = properties.getCache().get(service.getEntityClass().getSimpleName());
+        if (cache != null) {
+            service.setEntityCache(cache.isEnabled() ? new LruEntityCache(cache.getMaxSize(), cache.getTtl()) : null);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.kuochsiang.nutz.autoconfigure;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BaseServiceImpl 相关配置
+ * <p>
+ * 例如为实体 User 开启二级缓存:
+ * <pre>
+ * nutz.service.cache.User.max-size=10000
+ * nutz.service.cache.User.ttl=60000
+ * </pre>
+ * 输出超过500毫秒的 SQL:
+ * <pre>
+ * nutz.service.slow-query-threshold=500
+ * </pre>
+ * 耗时指标发布分位数和直方图:
+ * <pre>
+ * nutz.service.metrics.percentiles=0.5,0.95,0.99
+ * nutz.service.metrics.percentile-histogram=true
+ * </pre>
+ */
+@ConfigurationProperties(prefix = "nutz.service")
+public class NutzServiceProperties {
+
+    /**
+     * 实体二级缓存, 键为实体类的简单类名
+     */
+    private Map<String, Cache> cache = new HashMap<String, Cache>();
+
+    /**
+     * 慢 SQL 阈值(毫秒), 超过时以 WARN 级别输出 SQL 和参数, 小于等于0时关闭
+     */
+    private long slowQueryThreshold;
+
+    /**
+     * 是否为所有 service 开启事务范围的一级缓存(IdentityMap)
+     */
+    private boolean identityMap;
+
+    /**
+     * service 调用统计
+     */
+    private Metrics metrics = new Metrics();
+
+    public Map<String, Cache> getCache() {
+        return cache;
+    }
+
+    public void setCache(Map<String, Cache> cache) {
+        this.cache = cache;
+    }
+
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    public void setSlowQueryThreshold(long slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    public boolean isIdentityMap() {
+        return identityMap;
+    }
+
+    public void setIdentityMap(boolean identityMap) {
+        this.identityMap = identityMap;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public static class Metrics {
+
+        /**
+         * 是否开启, 需要容器中存在 ServiceMetrics 实现(例如引入 micrometer-core)
+         */
+        private boolean enabled = true;
+
+        /**
+         * 耗时指标在客户端计算的分位数, 例如 0.5,0.95,0.99, 不能跨实例聚合
+         */
+        private double[] percentiles = new double[0];
+
+        /**
+         * 是否发布耗时直方图, 用于在监控系统中跨实例计算分位数
+         */
+        private boolean percentileHistogram;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double[] getPercentiles() {
+            return percentiles;
+        }
+
+        public void setPercentiles(double[] percentiles) {
+            this.percentiles = percentiles;
+        }
+
+        public boolean isPercentileHistogram() {
+            return percentileHistogram;
+        }
+
+        public void setPercentileHistogram(boolean percentileHistogram) {
+            this.percentileHistogram = percentileHistogram;
+        }
+    }
+
+    public static class Cache {
+
+        /**
+         * 是否开启, 为false时即使实体上有 @FetchCache 也关闭缓存
+         */
+        private boolean enabled = true;
+
+        /**
+         * 最大缓存对象数
+         */
+        private int maxSize = 10000;
+
+        /**
+         * 过期时间(毫秒), 小于等于0表示不过期
+         */
+        private long ttl = 300000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(long ttl) {
+            this.ttl = ttl;
+        }
+    }
+}
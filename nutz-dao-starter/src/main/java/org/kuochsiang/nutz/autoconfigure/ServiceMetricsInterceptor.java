@@ -0,0 +1,142 @@
+package org.kuochsiang.nutz.autoconfigure;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.kuochsiang.nutz.common.IBaseService;
+import org.kuochsiang.nutz.common.KeysetPage;
+import org.kuochsiang.nutz.common.ServiceMetrics;
+import org.kuochsiang.nutz.common.SqlStatsInterceptor;
+import org.nutz.dao.QueryResult;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 记录 service 方法调用的耗时、行数和 SQL 语句数
+ * <p>
+ * 只统计 IBaseService 中登记了操作类型的方法, 其余方法(例如 dao()、stream()、onShard())直接调用
+ */
+public class ServiceMetricsInterceptor implements MethodInterceptor {
+
+    /**
+     * IBaseService 方法名到操作类型, IBaseService 新增方法时需要在这里登记
+     */
+    private static final Map<String, String> OPERATIONS = new HashMap<String, String>();
+
+    static {
+        for (String name : new String[]{"count", "func", "getMaxId", "countShards"}) {
+            OPERATIONS.put(name, ServiceMetrics.COUNT);
+        }
+        for (String name : new String[]{"fetch", "fetchAll", "fetchAllMap", "getField"}) {
+            OPERATIONS.put(name, ServiceMetrics.FETCH);
+        }
+        for (String name : new String[]{"fetchLinks", "fetchLinksBatch"}) {
+            OPERATIONS.put(name, ServiceMetrics.FETCH_LINKS);
+        }
+        for (String name : new String[]{"query", "queryPager", "queryByJoin", "queryByJoinPager", "queryKeyset", "each",
+                "getByList", "getByListVO", "getPagerByList", "getPagerByListNoCount", "queryShards",
+                "queryPagerShards", "aggregate", "queryLongColumn", "queryIntColumn", "queryStringColumn", "exportCsv",
+                "exportJsonLines"}) {
+            OPERATIONS.put(name, ServiceMetrics.QUERY);
+        }
+        for (String name : new String[]{"insert", "insertOrUpdate", "insertWith", "insertLinks", "insertRelation",
+                "insertBatch", "insertWithBatch", "upsertBatch"}) {
+            OPERATIONS.put(name, ServiceMetrics.INSERT);
+        }
+        for (String name : new String[]{"update", "updateRelation", "updateIgnoreNull", "updateWith", "updateLinks",
+                "updateBatch", "updateIgnoreNullBatch"}) {
+            OPERATIONS.put(name, ServiceMetrics.UPDATE);
+        }
+        for (String name : new String[]{"delete", "deleteBatch", "deleteAll", "deleteWith", "clear", "clearWith",
+                "clearLinks"}) {
+            OPERATIONS.put(name, ServiceMetrics.DELETE);
+        }
+    }
+
+    private final Class<?> entityClass;
+
+    private final ServiceMetrics metrics;
+
+    public ServiceMetricsInterceptor(Class<?> entityClass, ServiceMetrics metrics) {
+        this.entityClass = entityClass;
+        this.metrics = metrics;
+    }
+
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        String operation = operationOf(invocation.getMethod());
+        if (operation == null) {
+            return invocation.proceed();
+        }
+        int statements = SqlStatsInterceptor.statements();
+        long start = System.nanoTime();
+        Object re = null;
+        Throwable error = null;
+        try {
+            re = invocation.proceed();
+            return re;
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            metrics.record(entityClass, operation, System.nanoTime() - start,
+                    error == null ? rowsOf(operation, re) : -1,
+                    SqlStatsInterceptor.statements() - statements, error);
+        }
+    }
+
+    /**
+     * @param method service 方法
+     * @return 操作类型, 不是 IBaseService 中的方法或不统计(dao()、stream()、onShard())时返回null
+     */
+    static String operationOf(Method method) {
+        String operation = OPERATIONS.get(method.getName());
+        if (operation == null) {
+            return null;
+        }
+        try {
+            IBaseService.class.getMethod(method.getName(), method.getParameterTypes());
+            return operation;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 从返回值推算行数: 查询为返回的对象数, 写操作为影响的行数
+     */
+    static int rowsOf(String operation, Object re) {
+        if (re instanceof Collection) {
+            return ((Collection<?>) re).size();
+        }
+        if (re instanceof Map) {
+            return ((Map<?, ?>) re).size();
+        }
+        if (re instanceof QueryResult) {
+            return ((QueryResult) re).getList().size();
+        }
+        if (re instanceof KeysetPage) {
+            return ((KeysetPage<?>) re).getList().size();
+        }
+        if (re instanceof int[]) {
+            int n = 0;
+            for (int i : (int[]) re) {
+                if (i > 0) {
+                    n += i;
+                }
+            }
+            return n;
+        }
+        if (ServiceMetrics.COUNT.equals(operation)) {
+            return 1;
+        }
+        if (re instanceof Integer) {
+            return (Integer) re;
+        }
+        if (re == null) {
+            return ServiceMetrics.FETCH.equals(operation) || ServiceMetrics.FETCH_LINKS.equals(operation) ? 0 : -1;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,90 @@
+package org.kuochsiang.nutz.autoconfigure;
+
+import org.kuochsiang.nutz.common.BaseServiceImpl;
+import org.kuochsiang.nutz.common.ServiceMetrics;
+import org.kuochsiang.nutz.common.SqlStatsInterceptor;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import java.lang.reflect.Method;
+
+/**
+ * 为 BaseServiceImpl 安装 SQL 统计拦截器, 容器中存在 {@link ServiceMetrics} 时为 service 创建统计代理
+ * <p>
+ * 代理只拦截 IBaseService 中的方法, 操作类型见 {@link ServiceMetricsInterceptor#operationOf(Method)}。
+ * 代理基于 CGLIB, service 内部的 this 调用不会被统计。
+ * 未开启统计且未设置慢 SQL 阈值时不做任何处理, service 和 Dao 保持原样
+ */
+public class ServiceMetricsPostProcessor implements BeanPostProcessor {
+
+    private final ObjectProvider<ServiceMetrics> metricsProvider;
+
+    private final boolean metricsEnabled;
+
+    private final long slowQueryThreshold;
+
+    private ServiceMetrics metrics;
+
+    private boolean resolved;
+
+    /**
+     * @param metricsProvider    ServiceMetrics, 在第一个 service 初始化时获取
+     * @param metricsEnabled     是否开启统计
+     * @param slowQueryThreshold 慢 SQL 阈值(毫秒), 小于等于0时关闭
+     */
+    public ServiceMetricsPostProcessor(ObjectProvider<ServiceMetrics> metricsProvider, boolean metricsEnabled,
+                                       long slowQueryThreshold) {
+        this.metricsProvider = metricsProvider;
+        this.metricsEnabled = metricsEnabled;
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (!(bean instanceof BaseServiceImpl)) {
+            return bean;
+        }
+        BaseServiceImpl<?> service = (BaseServiceImpl<?>) bean;
+        if (service.getEntityClass() == null || service.dao() == null) {
+            return bean;
+        }
+        ServiceMetrics metrics = this.metrics();
+        if (metrics == null) {
+            if (slowQueryThreshold > 0) {
+                SqlStatsInterceptor.install(service.dao(), slowQueryThreshold);
+            }
+            return bean;
+        }
+        SqlStatsInterceptor.install(service.dao(), slowQueryThreshold);
+        Advisor advisor = new StaticMethodMatcherPointcutAdvisor(
+                new ServiceMetricsInterceptor(service.getEntityClass(), metrics)) {
+            public boolean matches(Method method, Class<?> targetClass) {
+                return ServiceMetricsInterceptor.operationOf(method) != null;
+            }
+        };
+        if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+            ((Advised) bean).addAdvisor(0, advisor);
+            return bean;
+        }
+        ProxyFactory factory = new ProxyFactory(bean);
+        factory.setProxyTargetClass(true);
+        factory.addAdvisor(advisor);
+        return factory.getProxy(bean.getClass().getClassLoader());
+    }
+
+    private synchronized ServiceMetrics metrics() {
+        if (!resolved) {
+            metrics = metricsEnabled ? metricsProvider.getIfAvailable() : null;
+            resolved = true;
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,110 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.entity.Entity;
+import org.nutz.dao.entity.MappingField;
+import org.nutz.lang.Strings;
+
+import java.util.regex.Pattern;
+
+/**
+ * 聚合函数, 用于 {@link IBaseService#aggregate(org.nutz.dao.Condition, String[], Agg...)}
+ * <p>
+ * 结果名默认为 函数名 + 字段名, 例如 sum("amount") 为 sumAmount, count() 为 count,
+ * countDistinct("userId") 为 countDistinctUserId, 可以通过 {@link #as(String)} 修改
+ */
+public class Agg {
+
+    private static final Pattern ALIAS = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final String func;
+
+    private final String field;
+
+    private final boolean distinct;
+
+    private String alias;
+
+    private Agg(String func, String field, boolean distinct, String alias) {
+        this.func = func;
+        this.field = field;
+        this.distinct = distinct;
+        this.alias = alias;
+    }
+
+    /**
+     * COUNT(*)
+     */
+    public static Agg count() {
+        return new Agg("COUNT", null, false, "count");
+    }
+
+    /**
+     * COUNT(字段), 不统计null
+     */
+    public static Agg count(String field) {
+        return new Agg("COUNT", field, false, "count" + Strings.upperFirst(field));
+    }
+
+    public static Agg countDistinct(String field) {
+        return new Agg("COUNT", field, true, "countDistinct" + Strings.upperFirst(field));
+    }
+
+    public static Agg sum(String field) {
+        return new Agg("SUM", field, false, "sum" + Strings.upperFirst(field));
+    }
+
+    /**
+     * 平均值, 整数字段也按小数计算
+     */
+    public static Agg avg(String field) {
+        return new Agg("AVG", field, false, "avg" + Strings.upperFirst(field));
+    }
+
+    public static Agg min(String field) {
+        return new Agg("MIN", field, false, "min" + Strings.upperFirst(field));
+    }
+
+    public static Agg max(String field) {
+        return new Agg("MAX", field, false, "max" + Strings.upperFirst(field));
+    }
+
+    /**
+     * @param alias 结果名, 映射到 VO 时对应 VO 的字段(列)名, 只能包含字母、数字和下划线, 不能以数字开头
+     * @return 本对象
+     */
+    public Agg as(String alias) {
+        if (alias == null || !ALIAS.matcher(alias).matches()) {
+            throw new IllegalArgumentException("invalid aggregate alias: " + alias);
+        }
+        this.alias = alias;
+        return this;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * 生成聚合表达式, 不含别名
+     *
+     * @param en 实体
+     * @return 例如 SUM(amount)
+     */
+    String toSql(Entity<?> en) {
+        if (field == null) {
+            return func + "(*)";
+        }
+        MappingField mf = en.getField(field);
+        if (mf == null) {
+            throw new IllegalArgumentException("no such field '" + field + "' in " + en.getType().getName());
+        }
+        String column = mf.getColumnNameInSql();
+        if (distinct) {
+            return func + "(DISTINCT " + column + ")";
+        }
+        if ("AVG".equals(func)) {
+            return func + "(" + column + " * 1.0)";
+        }
+        return func + "(" + column + ")";
+    }
+}
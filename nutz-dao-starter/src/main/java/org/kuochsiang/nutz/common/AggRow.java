@@ -0,0 +1,83 @@
+package org.kuochsiang.nutz.common;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 聚合查询的一行结果, 包含分组字段(按java字段名)和聚合结果(按 {@link Agg#getAlias()})
+ * <p>
+ * 数值按需转换, SUM 用 {@link #getBigDecimal(String)} 取值不会溢出或丢失精度
+ */
+public class AggRow implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+    void set(String name, Object value) {
+        values.put(name, value);
+    }
+
+    public Object get(String name) {
+        if (!values.containsKey(name)) {
+            throw new IllegalArgumentException("no such column '" + name + "', columns are " + values.keySet());
+        }
+        return values.get(name);
+    }
+
+    /**
+     * @return 分组字段和聚合结果, 按查询顺序
+     */
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    public String getString(String name) {
+        Object v = this.get(name);
+        return v == null ? null : v.toString();
+    }
+
+    /**
+     * @return 值为null(例如没有记录时的 SUM)时返回0
+     */
+    public long getLong(String name) {
+        Number n = this.number(name);
+        return n == null ? 0 : n.longValue();
+    }
+
+    /**
+     * @return 值为null时返回0
+     */
+    public double getDouble(String name) {
+        Number n = this.number(name);
+        return n == null ? 0 : n.doubleValue();
+    }
+
+    /**
+     * @return 值为null时返回null
+     */
+    public BigDecimal getBigDecimal(String name) {
+        Number n = this.number(name);
+        if (n == null || n instanceof BigDecimal) {
+            return (BigDecimal) n;
+        }
+        if (n instanceof Double || n instanceof Float) {
+            return BigDecimal.valueOf(n.doubleValue());
+        }
+        return new BigDecimal(n.toString());
+    }
+
+    private Number number(String name) {
+        Object v = this.get(name);
+        if (v == null || v instanceof Number) {
+            return (Number) v;
+        }
+        return new BigDecimal(v.toString());
+    }
+
+    public String toString() {
+        return values.toString();
+    }
+}
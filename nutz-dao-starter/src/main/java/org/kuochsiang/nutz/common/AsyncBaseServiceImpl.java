@@ -0,0 +1,1040 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.Chain;
+import org.nutz.dao.Condition;
+import org.nutz.dao.FieldFilter;
+import org.nutz.dao.FieldMatcher;
+import org.nutz.dao.QueryResult;
+import org.nutz.dao.TableName;
+import org.nutz.dao.pager.Pager;
+import org.nutz.lang.Each;
+
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * 在线程池上执行 {@link IBaseService} 方法的异步 service
+ * <p>
+ * 同时执行的数据库操作数由信号量限制, 通常设置为连接池大小, 避免并发扇出耗尽连接。
+ * 任务先进入等待队列, 拿到许可后才提交给线程池, 因此等待中的任务不占用线程。
+ * 未指定线程池时, JDK21 及以上通过反射使用虚拟线程(Executors.newVirtualThreadPerTaskExecutor), 否则使用固定大小的守护线程池。
+ * 调用方处于事务中时直接在当前线程同步执行, 以便加入该事务; 动态表名(TableName)和读写分离状态会传递到执行线程
+ *
+ * @param <T> 实体类型
+ */
+public class AsyncBaseServiceImpl<T> implements IAsyncBaseService<T> {
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private final IBaseService<T> service;
+
+    private final Executor executor;
+
+    private final Semaphore permits;
+
+    private final Queue<Task<?>> pending = new ConcurrentLinkedQueue<Task<?>>();
+
+    /**
+     * 使用 {@link #defaultExecutor(int)} 创建的线程池
+     *
+     * @param service        同步 service
+     * @param maxConcurrency 同时执行的数据库操作上限, 通常为连接池大小
+     */
+    public AsyncBaseServiceImpl(IBaseService<T> service, int maxConcurrency) {
+        this(service, defaultExecutor(maxConcurrency), maxConcurrency);
+    }
+
+    /**
+     * @param service        同步 service
+     * @param executor       执行数据库操作的线程池
+     * @param maxConcurrency 同时执行的数据库操作上限, 通常为连接池大小
+     */
+    public AsyncBaseServiceImpl(IBaseService<T> service, Executor executor, int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        this.service = service;
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * JDK21 及以上返回虚拟线程池, 否则返回 threads 个守护线程的固定线程池
+     *
+     * @param threads 非虚拟线程时的线程数
+     * @return 线程池
+     */
+    public static ExecutorService defaultExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "nutz-async-" + THREAD_NUMBER.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException("cannot create virtual thread executor", e);
+        }
+    }
+
+    public IBaseService<T> service() {
+        return service;
+    }
+
+    /**
+     * @return 当前可用的并发数
+     */
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * @return 等待许可的任务数
+     */
+    public int pendingTasks() {
+        return pending.size();
+    }
+
+    public <R> CompletableFuture<R> submit(final Function<IBaseService<T>, R> action) {
+        final CompletableFuture<R> re = new CompletableFuture<R>();
+        if (BaseServiceImpl.inTransaction()) {
+            try {
+                re.complete(action.apply(service));
+            } catch (Throwable e) {
+                re.completeExceptionally(e);
+            }
+            return re;
+        }
+        pending.offer(new Task<R>(re, action, TableName.get(), ReadWriteRouter.snapshot()));
+        this.drain();
+        return re;
+    }
+
+    /**
+     * 有许可时把等待队列中的任务提交给线程池, 任务结束后归还许可并继续提交
+     */
+    private void drain() {
+        while (!pending.isEmpty() && permits.tryAcquire()) {
+            final Task<?> task = pending.poll();
+            if (task == null) {
+                permits.release();
+                continue;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                            drain();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private class Task<R> {
+
+        private final CompletableFuture<R> future;
+
+        private final Function<IBaseService<T>, R> action;
+
+        private final Object tableName;
+
+        private final Object route;
+
+        Task(CompletableFuture<R> future, Function<IBaseService<T>, R> action, Object tableName, Object route) {
+            this.future = future;
+            this.action = action;
+            this.tableName = tableName;
+            this.route = route;
+        }
+
+        void run() {
+            // 排队期间已被调用方取消
+            if (future.isDone()) {
+                return;
+            }
+            Object old = TableName.set(tableName);
+            Object oldRoute = ReadWriteRouter.restore(route);
+            try {
+                future.complete(action.apply(service));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                ReadWriteRouter.restore(oldRoute);
+                TableName.set(old);
+            }
+        }
+    }
+
+    public CompletableFuture<Integer> count(final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.count(cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> count() {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.count();
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> count(final String tableName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.count(tableName, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> count(final String tableName) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.count(tableName);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> func(final String funcName, final String fieldName) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.func(funcName, fieldName);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> func(final String funcName, final String fieldName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.func(funcName, fieldName, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<List<AggRow>> aggregate(final Condition cnd, final String[] groupBy, final Agg... aggs) {
+        return this.submit(new Function<IBaseService<T>, List<AggRow>>() {
+            public List<AggRow> apply(IBaseService<T> s) {
+                return s.aggregate(cnd, groupBy, aggs);
+            }
+        });
+    }
+
+    public <V> CompletableFuture<List<V>> aggregate(final Class<V> voType, final Condition cnd, final String[] groupBy,
+                                                    final Agg... aggs) {
+        return this.submit(new Function<IBaseService<T>, List<V>>() {
+            public List<V> apply(IBaseService<T> s) {
+                return s.aggregate(voType, cnd, groupBy, aggs);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> getMaxId() {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.getMaxId();
+            }
+        });
+    }
+
+    public CompletableFuture<T> fetch(final Long id) {
+        return this.submit(new Function<IBaseService<T>, T>() {
+            public T apply(IBaseService<T> s) {
+                return s.fetch(id);
+            }
+        });
+    }
+
+    public CompletableFuture<T> fetch(final String id) {
+        return this.submit(new Function<IBaseService<T>, T>() {
+            public T apply(IBaseService<T> s) {
+                return s.fetch(id);
+            }
+        });
+    }
+
+    public CompletableFuture<T> fetch(final Long id, final String fieldName) {
+        return this.submit(new Function<IBaseService<T>, T>() {
+            public T apply(IBaseService<T> s) {
+                return s.fetch(id, fieldName);
+            }
+        });
+    }
+
+    public CompletableFuture<T> fetch(final String id, final String fieldName) {
+        return this.submit(new Function<IBaseService<T>, T>() {
+            public T apply(IBaseService<T> s) {
+                return s.fetch(id, fieldName);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> fetchAll(final Collection<?> ids) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.fetchAll(ids);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> fetchAll(final Collection<?> ids, final String fieldName) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.fetchAll(ids, fieldName);
+            }
+        });
+    }
+
+    public <K> CompletableFuture<Map<K, T>> fetchAllMap(final Collection<K> ids) {
+        return this.submit(new Function<IBaseService<T>, Map<K, T>>() {
+            public Map<K, T> apply(IBaseService<T> s) {
+                return s.fetchAllMap(ids);
+            }
+        });
+    }
+
+    public <K> CompletableFuture<Map<K, T>> fetchAllMap(final Collection<K> ids, final String fieldName) {
+        return this.submit(new Function<IBaseService<T>, Map<K, T>>() {
+            public Map<K, T> apply(IBaseService<T> s) {
+                return s.fetchAllMap(ids, fieldName);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> fetchLinks(final E obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.fetchLinks(obj, regex);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> fetchLinks(final E obj, final String regex, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.fetchLinks(obj, regex, cnd);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> fetchLinks(final E obj, final String regex, final FieldFilter fieldFilter) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.fetchLinks(obj, regex, fieldFilter);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> fetchLinksBatch(final List<T> list, final String linkName) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.fetchLinksBatch(list, linkName);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> fetchLinksBatch(final List<T> list, final String linkName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.fetchLinksBatch(list, linkName, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<T> fetch(final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, T>() {
+            public T apply(IBaseService<T> s) {
+                return s.fetch(cnd);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> insert(final E obj) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.insert(obj);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> insertOrUpdate(final E obj) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.insertOrUpdate(obj);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> insertOrUpdate(final E obj, final FieldFilter insertFieldFilter, final FieldFilter updateFieldFilter) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.insertOrUpdate(obj, insertFieldFilter, updateFieldFilter);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> insertWith(final E obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.insertWith(obj, regex);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> insertLinks(final E obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.insertLinks(obj, regex);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> insertRelation(final E obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.insertRelation(obj, regex);
+            }
+        });
+    }
+
+    public CompletableFuture<int[]> insertBatch(final List<T> list, final int batchSize) {
+        return this.submit(new Function<IBaseService<T>, int[]>() {
+            public int[] apply(IBaseService<T> s) {
+                return s.insertBatch(list, batchSize);
+            }
+        });
+    }
+
+    public CompletableFuture<int[]> insertWithBatch(final List<T> list, final String regex, final int batchSize) {
+        return this.submit(new Function<IBaseService<T>, int[]>() {
+            public int[] apply(IBaseService<T> s) {
+                return s.insertWithBatch(list, regex, batchSize);
+            }
+        });
+    }
+
+    public CompletableFuture<int[]> updateBatch(final List<T> list, final int batchSize) {
+        return this.submit(new Function<IBaseService<T>, int[]>() {
+            public int[] apply(IBaseService<T> s) {
+                return s.updateBatch(list, batchSize);
+            }
+        });
+    }
+
+    public CompletableFuture<int[]> updateIgnoreNullBatch(final List<T> list) {
+        return this.submit(new Function<IBaseService<T>, int[]>() {
+            public int[] apply(IBaseService<T> s) {
+                return s.updateIgnoreNullBatch(list);
+            }
+        });
+    }
+
+    public CompletableFuture<int[]> updateIgnoreNullBatch(final List<T> list, final int batchSize) {
+        return this.submit(new Function<IBaseService<T>, int[]>() {
+            public int[] apply(IBaseService<T> s) {
+                return s.updateIgnoreNullBatch(list, batchSize);
+            }
+        });
+    }
+
+    public CompletableFuture<int[]> upsertBatch(final List<T> list, final FieldFilter updateFields) {
+        return this.submit(new Function<IBaseService<T>, int[]>() {
+            public int[] apply(IBaseService<T> s) {
+                return s.upsertBatch(list, updateFields);
+            }
+        });
+    }
+
+    public CompletableFuture<int[]> upsertBatch(final List<T> list, final FieldFilter updateFields, final int batchSize) {
+        return this.submit(new Function<IBaseService<T>, int[]>() {
+            public int[] apply(IBaseService<T> s) {
+                return s.upsertBatch(list, updateFields, batchSize);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> update(final Object obj) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.update(obj);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> updateRelation(final Class<?> classOfT, final String regex, final Chain chain, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.updateRelation(classOfT, regex, chain, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> updateIgnoreNull(final Object obj) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.updateIgnoreNull(obj);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> updateWith(final E obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.updateWith(obj, regex);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> updateLinks(final E obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.updateLinks(obj, regex);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> delete(final long id) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.delete(id);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> delete(final String id) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.delete(id);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> delete(final Long[] ids) {
+        return this.submit(new Function<IBaseService<T>, Void>() {
+            public Void apply(IBaseService<T> s) {
+                s.delete(ids);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> delete(final String[] ids) {
+        return this.submit(new Function<IBaseService<T>, Void>() {
+            public Void apply(IBaseService<T> s) {
+                s.delete(ids);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> deleteBatch(final Collection<?> ids, final int chunkSize) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.deleteBatch(ids, chunkSize);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> deleteBatch(final Collection<?> ids, final int chunkSize, final boolean transPerChunk) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.deleteBatch(ids, chunkSize, transPerChunk);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> deleteAll(final List<T> list) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.deleteAll(list);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> deleteWith(final T obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, Void>() {
+            public Void apply(IBaseService<T> s) {
+                s.deleteWith(obj, regex);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> clearWith(final T obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, Void>() {
+            public Void apply(IBaseService<T> s) {
+                s.clearWith(obj, regex);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> clear() {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.clear();
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> clear(final String tableName) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.clear(tableName);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> clear(final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.clear(cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> clear(final String tableName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.clear(tableName, cnd);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<E> clearLinks(final E obj, final String regex) {
+        return this.submit(new Function<IBaseService<T>, E>() {
+            public E apply(IBaseService<T> s) {
+                return s.clearLinks(obj, regex);
+            }
+        });
+    }
+
+    public CompletableFuture<T> getField(final String fieldName, final long id) {
+        return this.submit(new Function<IBaseService<T>, T>() {
+            public T apply(IBaseService<T> s) {
+                return s.getField(fieldName, id);
+            }
+        });
+    }
+
+    public CompletableFuture<T> getField(final String fieldName, final String id) {
+        return this.submit(new Function<IBaseService<T>, T>() {
+            public T apply(IBaseService<T> s) {
+                return s.getField(fieldName, id);
+            }
+        });
+    }
+
+    public CompletableFuture<T> getField(final String fieldName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, T>() {
+            public T apply(IBaseService<T> s) {
+                return s.getField(fieldName, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query(final String fieldName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query(fieldName, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query(final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query(cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query() {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query();
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query(final String linkName) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query(linkName);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query(final Condition cnd, final String linkName) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query(cnd, linkName);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query(final Condition cnd, final String linkName, final String fieldName, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query(cnd, linkName, fieldName, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> queryPager(final Condition cnd, final String linkName, final String fieldName, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.queryPager(cnd, linkName, fieldName, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> queryByJoinPager(final Condition cnd, final String linkName, final String filedName1, final Pager pager, final Condition cnd1) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.queryByJoinPager(cnd, linkName, filedName1, pager, cnd1);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query(final Condition cnd, final String linkName, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query(cnd, linkName, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query(final Condition cnd, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query(cnd, pager);
+            }
+        });
+    }
+
+    public <R> CompletableFuture<R> onShard(final Object shardKey, final Callable<R> callable) {
+        return this.submit(new Function<IBaseService<T>, R>() {
+            public R apply(IBaseService<T> s) {
+                return s.onShard(shardKey, callable);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> queryShards(final Condition cnd, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.queryShards(cnd, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> countShards(final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.countShards(cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> queryPagerShards(final Pager pager, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.queryPagerShards(pager, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> query(final Condition cnd, final String linkName, final Pager pager, final FieldMatcher fieldMatcher) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.query(cnd, linkName, pager, fieldMatcher);
+            }
+        });
+    }
+
+    public CompletableFuture<KeysetPage<T>> queryKeyset(final Condition cnd, final String token, final int pageSize) {
+        return this.submit(new Function<IBaseService<T>, KeysetPage<T>>() {
+            public KeysetPage<T> apply(IBaseService<T> s) {
+                return s.queryKeyset(cnd, token, pageSize);
+            }
+        });
+    }
+
+    public CompletableFuture<KeysetPage<T>> queryKeyset(final Condition cnd, final String token, final int pageSize, final boolean desc, final String... keyFields) {
+        return this.submit(new Function<IBaseService<T>, KeysetPage<T>>() {
+            public KeysetPage<T> apply(IBaseService<T> s) {
+                return s.queryKeyset(cnd, token, pageSize, desc, keyFields);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> each(final Condition cnd, final Each<T> callback) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.each(cnd, callback);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> each(final Condition cnd, final Each<T> callback, final boolean reuse) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.each(cnd, callback, reuse);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> exportCsv(final Condition cnd, final OutputStream out, final String... fieldNames) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.exportCsv(cnd, out, fieldNames);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> exportCsv(final String sql, final Map<String, Object> params, final OutputStream out, final String... columns) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.exportCsv(sql, params, out, columns);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> exportJsonLines(final Condition cnd, final OutputStream out, final String... fieldNames) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.exportJsonLines(cnd, out, fieldNames);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> exportJsonLines(final String sql, final Map<String, Object> params, final OutputStream out, final String... columns) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.exportJsonLines(sql, params, out, columns);
+            }
+        });
+    }
+
+    public CompletableFuture<LongList> queryLongColumn(final String fieldName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, LongList>() {
+            public LongList apply(IBaseService<T> s) {
+                return s.queryLongColumn(fieldName, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> queryLongColumn(final String fieldName, final Condition cnd, final LongConsumer callback) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.queryLongColumn(fieldName, cnd, callback);
+            }
+        });
+    }
+
+    public CompletableFuture<IntList> queryIntColumn(final String fieldName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, IntList>() {
+            public IntList apply(IBaseService<T> s) {
+                return s.queryIntColumn(fieldName, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> queryIntColumn(final String fieldName, final Condition cnd, final IntConsumer callback) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.queryIntColumn(fieldName, cnd, callback);
+            }
+        });
+    }
+
+    public CompletableFuture<List<String>> queryStringColumn(final String fieldName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, List<String>>() {
+            public List<String> apply(IBaseService<T> s) {
+                return s.queryStringColumn(fieldName, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> queryStringColumn(final String fieldName, final Condition cnd, final Consumer<String> callback) {
+        return this.submit(new Function<IBaseService<T>, Integer>() {
+            public Integer apply(IBaseService<T> s) {
+                return s.queryStringColumn(fieldName, cnd, callback);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> queryByJoin(final Condition cnd, final String linkName, final String fieldName1, final Pager pager, final Class<?> klass, final String fieldName2) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.queryByJoin(cnd, linkName, fieldName1, pager, klass, fieldName2);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> queryByJoin(final Condition cnd, final String linkName, final String filedName1, final Pager pager, final Condition cnd1, final String filedName2) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.queryByJoin(cnd, linkName, filedName1, pager, cnd1, filedName2);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> queryByJoin(final Condition cnd, final String linkName, final String fieldName1, final Pager pager, final Class<?> klass, final String fieldName2, final Class<?> klass1, final String fieldName3) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.queryByJoin(cnd, linkName, fieldName1, pager, klass, fieldName2, klass1, fieldName3);
+            }
+        });
+    }
+
+    public CompletableFuture<List<T>> queryByJoin(final String linkName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, List<T>>() {
+            public List<T> apply(IBaseService<T> s) {
+                return s.queryByJoin(linkName, cnd);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<List<E>> getByList(final String sql) {
+        return this.submit(new Function<IBaseService<T>, List<E>>() {
+            public List<E> apply(IBaseService<T> s) {
+                return s.getByList(sql);
+            }
+        });
+    }
+
+    public <E> CompletableFuture<List<E>> getByList(final String sql, final Map<String, Object> params) {
+        return this.submit(new Function<IBaseService<T>, List<E>>() {
+            public List<E> apply(IBaseService<T> s) {
+                return s.getByList(sql, params);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getByListVO(final Class<?> t, final String sql) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getByListVO(t, sql);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getByListVO(final Class<?> t, final String sql, final Map<String, Object> params) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getByListVO(t, sql, params);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getPagerByList(final String sql, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getPagerByList(sql, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getPagerByList(final String sql, final Map<String, Object> params, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getPagerByList(sql, params, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getPagerByList(final String sql, final String countSql, final Map<String, Object> params, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getPagerByList(sql, countSql, params, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getPagerByListNoCount(final String sql, final Map<String, Object> params, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getPagerByListNoCount(sql, params, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getPagerByList(final Class<?> t, final String sql, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getPagerByList(t, sql, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getPagerByList(final Class<?> t, final String sql, final Map<String, Object> params, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getPagerByList(t, sql, params, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getPagerByList(final Class<?> t, final String sql, final String countSql, final Map<String, Object> params, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getPagerByList(t, sql, countSql, params, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> getPagerByListNoCount(final Class<?> t, final String sql, final Map<String, Object> params, final Pager pager) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.getPagerByListNoCount(t, sql, params, pager);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> queryPager(final Pager pager, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.queryPager(pager, cnd);
+            }
+        });
+    }
+
+    public CompletableFuture<QueryResult> queryPager(final Pager pager, final String linkName, final Condition cnd) {
+        return this.submit(new Function<IBaseService<T>, QueryResult>() {
+            public QueryResult apply(IBaseService<T> s) {
+                return s.queryPager(pager, linkName, cnd);
+            }
+        });
+    }
+}
@@ -1,23 +1,159 @@
 package org.kuochsiang.nutz.common;
 
+import org.nutz.castor.Castors;
 import org.nutz.dao.*;
 import org.nutz.dao.entity.Entity;
 import org.nutz.dao.entity.MappingField;
 import org.nutz.dao.entity.PkType;
-import org.nutz.dao.entity.Record;
+import org.nutz.dao.impl.DaoSupport;
+import org.nutz.dao.impl.sql.NutSql;
 import org.nutz.dao.pager.Pager;
+import org.nutz.dao.pager.ResultSetLooping;
+import org.nutz.dao.sql.OrderBy;
 import org.nutz.dao.sql.Sql;
+import org.nutz.dao.sql.SqlCallback;
+import org.nutz.dao.sql.SqlContext;
+import org.nutz.dao.sql.SqlType;
 import org.nutz.dao.util.Daos;
+import org.nutz.dao.util.cri.OrderByItem;
+import org.nutz.dao.util.cri.OrderBySet;
+import org.nutz.dao.util.cri.SqlExpression;
+import org.nutz.dao.util.cri.SqlExpressionGroup;
+import org.nutz.dao.util.cri.Static;
+import org.nutz.json.Json;
+import org.nutz.json.JsonFormat;
+import org.nutz.lang.ContinueLoop;
+import org.nutz.lang.Each;
+import org.nutz.lang.ExitLoop;
 import org.nutz.lang.Lang;
+import org.nutz.lang.Mirror;
 import org.nutz.lang.Strings;
 import org.nutz.service.EntityService;
-
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
 
 
 public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService<T> {
 
+    /**
+     * 批量操作默认每批条数
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * 游标查询默认 JDBC fetchSize
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    /**
+     * 并发分页查询默认超时时间(毫秒)
+     */
+    public static final long DEFAULT_PAGER_TIMEOUT = 30000;
+
+    /**
+     * 跨分片分页默认允许的最大 offset + pageSize
+     */
+    public static final int DEFAULT_MAX_SHARD_WINDOW = 10000;
+
+    /**
+     * 字段过滤视图缓存的最大条数
+     */
+    public static final int PROJECTION_CACHE_SIZE = 256;
+
+    private static final Mirror<OrderByItem> ORDER_BY_ITEM = Mirror.me(OrderByItem.class);
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    /**
+     * 分页查询并发执行 count 的线程池, 为null时顺序执行
+     */
+    private ExecutorService pagerExecutor;
+
+    private long pagerTimeout = DEFAULT_PAGER_TIMEOUT;
+
+    /**
+     * 批量加载关联对象时每次 IN 查询的键值个数, 小于等于0时逐个对象加载
+     */
+    private int linkBatchSize = DEFAULT_BATCH_SIZE;
+
+    private ShardingStrategy shardingStrategy;
+
+    private boolean identityMap;
+
+    /**
+     * 跨分片查询并发执行的线程池, 为null时顺序执行
+     */
+    private ExecutorService shardExecutor;
+
+    private int maxShardWindow = DEFAULT_MAX_SHARD_WINDOW;
+
+    /**
+     * count 缓存, 为null时不缓存
+     */
+    private TtlCache<String, Integer> countCache;
+
+    /**
+     * 查询结果缓存, 为null时不缓存
+     */
+    private QueryCache queryCache;
+
+    private boolean approximateCount;
+
+    private volatile EntityCache<T> entityCache;
+
+    private volatile boolean entityCacheResolved;
+
+    /**
+     * 实体缓存内容对应的表版本号, 在实体缓存上同步
+     */
+    private long entityCacheVersion;
+
+    /**
+     * 字段过滤视图缓存, 键为 字段表达式 + 副表过滤, 值为 Daos.ext 生成的 Dao
+     */
+    private final TtlCache<String, Dao> projectionCache = new TtlCache<String, Dao>(PROJECTION_CACHE_SIZE, 0);
+
+    /**
+     * 生成 projectionCache 中视图时的 Dao, dao 被替换后缓存失效
+     */
+    private Dao projectionOwner;
+
     public BaseServiceImpl(Dao dao) {
         super(dao);
     }
@@ -31,8 +167,16 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param cnd 条件
      * @return
      */
-    public int count(Condition cnd) {
-        return this.dao().count(this.getEntityClass(), cnd);
+    public int count(final Condition cnd) {
+        Callable<Integer> count = new Callable<Integer>() {
+            public Integer call() {
+                return dao().count(getEntityClass(), cnd);
+            }
+        };
+        if (queryCache != null) {
+            return this.cachedQuery("count", cnd, null, count);
+        }
+        return this.cachedCount(this.getEntity().getTableName(), cnd, count);
     }
 
     /**
@@ -41,7 +185,18 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public int count() {
-        return this.dao().count(this.getEntityClass());
+        String tableName = this.getEntity().getTableName();
+        return this.cachedCount(approximateCount ? tableName + "|~" : tableName, null, new Callable<Integer>() {
+            public Integer call() {
+                if (approximateCount) {
+                    Long n = approximateCount(getEntity().getTableName());
+                    if (n != null) {
+                        return (int) Math.min(n, Integer.MAX_VALUE);
+                    }
+                }
+                return dao().count(getEntityClass());
+            }
+        });
     }
 
     /**
@@ -51,8 +206,12 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param cnd       条件
      * @return
      */
-    public int count(String tableName, Condition cnd) {
-        return this.dao().count(tableName, cnd);
+    public int count(final String tableName, final Condition cnd) {
+        return this.cachedCount(tableName, cnd, new Callable<Integer>() {
+            public Integer call() {
+                return dao().count(tableName, cnd);
+            }
+        });
     }
 
     /**
@@ -61,8 +220,12 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param tableName 表名称
      * @return
      */
-    public int count(String tableName) {
-        return this.dao().count(tableName);
+    public int count(final String tableName) {
+        return this.cachedCount(tableName, null, new Callable<Integer>() {
+            public Integer call() {
+                return dao().count(tableName);
+            }
+        });
     }
 
     /**
@@ -88,14 +251,75 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
         return this.dao().func(this.getEntityClass(), funcName, fieldName, cnd);
     }
 
+    /**
+     * 分组聚合, 一条语句计算多个聚合值, 结果按分组字段升序
+     * <p>
+     * 例如 aggregate(cnd, new String[]{"status"}, Agg.count(), Agg.sum("amount"))
+     *
+     * @param cnd     条件, 只使用其中的 WHERE 部分
+     * @param groupBy 分组字段(java字段名), 为null或空时不分组, 返回一行
+     * @param aggs    聚合函数
+     * @return 每组一行
+     */
+    public List<AggRow> aggregate(Condition cnd, String[] groupBy, Agg... aggs) {
+        final List<String> names = new ArrayList<String>();
+        Sql sql = this.aggregateSql(cnd, groupBy, aggs, names);
+        sql.setCallback(new SqlCallback() {
+            public Object invoke(Connection conn, ResultSet rs, Sql sql) throws SQLException {
+                List<AggRow> list = new ArrayList<AggRow>();
+                while (rs.next()) {
+                    AggRow row = new AggRow();
+                    for (int i = 0; i < names.size(); i++) {
+                        row.set(names.get(i), rs.getObject(i + 1));
+                    }
+                    list.add(row);
+                }
+                return list;
+            }
+        });
+        this.dao().execute(sql);
+        return sql.getList(AggRow.class);
+    }
+
+    /**
+     * 分组聚合, 结果映射到 VO。分组字段按java字段名、聚合结果按别名匹配 VO 的列名, 忽略大小写
+     *
+     * @param voType  VO 类型
+     * @param cnd     条件, 只使用其中的 WHERE 部分
+     * @param groupBy 分组字段(java字段名), 为null或空时不分组
+     * @param aggs    聚合函数
+     * @param <V>     VO 类型
+     * @return 每组一个 VO
+     */
+    public <V> List<V> aggregate(Class<V> voType, Condition cnd, String[] groupBy, Agg... aggs) {
+        final Entity<V> en = this.dao().getEntity(voType);
+        Sql sql = this.aggregateSql(cnd, groupBy, aggs, new ArrayList<String>());
+        sql.setCallback(new SqlCallback() {
+            public Object invoke(Connection conn, ResultSet rs, Sql sql) throws SQLException {
+                RowMapper<V> mapper = RowMapper.of(en, rs.getMetaData());
+                List<V> list = new ArrayList<V>();
+                while (rs.next()) {
+                    list.add(mapper.map(rs));
+                }
+                return list;
+            }
+        });
+        this.dao().execute(sql);
+        return sql.getList(voType);
+    }
+
     /**
      * 通过数字型主键查询对象
      *
      * @param id
      * @return
      */
-    public T fetch(Long id) {
-        return this.dao().fetch(this.getEntityClass(), id);
+    public T fetch(final Long id) {
+        return this.fetchById(id, new Callable<T>() {
+            public T call() {
+                return dao().fetch(getEntityClass(), id);
+            }
+        });
     }
 
     /**
@@ -104,8 +328,127 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param id
      * @return
      */
-    public T fetch(String id) {
-        return this.dao().fetch(this.getEntityClass(), id);
+    public T fetch(final String id) {
+        return this.fetchById(id, new Callable<T>() {
+            public T call() {
+                return dao().fetch(getEntityClass(), id);
+            }
+        });
+    }
+
+    /**
+     * 按主键批量查询, 每 DEFAULT_BATCH_SIZE 个主键执行一次 IN 查询, 已在实体缓存中的对象不再查询数据库
+     *
+     * @param ids 主键(@Id 或 @Name), 数字主键可以传入任意整数类型
+     * @return 按 ids 的顺序排列的对象, 不存在的主键被跳过, 重复的主键只返回一次
+     */
+    public List<T> fetchAll(Collection<?> ids) {
+        return this.fetchAll(ids, null);
+    }
+
+    /**
+     * 按主键批量查询, 只查询指定字段, 不使用实体缓存
+     *
+     * @param ids       主键
+     * @param fieldName 字段过滤, 支持正则 ^(a|b)$, 主键总是包含在内
+     * @return 按 ids 的顺序排列的对象
+     */
+    public List<T> fetchAll(Collection<?> ids, String fieldName) {
+        Map<Object, T> found = this.fetchByKeys(ids, fieldName);
+        List<T> re = new ArrayList<T>(found.size());
+        if (ids == null) {
+            return re;
+        }
+        Set<Object> seen = new HashSet<Object>();
+        for (Object id : ids) {
+            Object key = id == null ? null : this.pkKey(id);
+            T obj = found.get(key);
+            if (obj != null && seen.add(key)) {
+                re.add(obj);
+            }
+        }
+        return re;
+    }
+
+    /**
+     * 按主键批量查询
+     *
+     * @param ids 主键
+     * @param <K> 主键类型
+     * @return 主键到对象的映射, 按 ids 的顺序, 不存在的主键没有对应的键
+     * @see #fetchAll(Collection)
+     */
+    public <K> Map<K, T> fetchAllMap(Collection<K> ids) {
+        return this.fetchAllMap(ids, null);
+    }
+
+    /**
+     * 按主键批量查询, 只查询指定字段, 不使用实体缓存
+     *
+     * @param ids       主键
+     * @param fieldName 字段过滤, 支持正则 ^(a|b)$, 主键总是包含在内, 为null时查询全部字段并使用实体缓存
+     * @param <K>       主键类型
+     * @return 主键到对象的映射, 按 ids 的顺序
+     */
+    public <K> Map<K, T> fetchAllMap(Collection<K> ids, String fieldName) {
+        Map<Object, T> found = this.fetchByKeys(ids, fieldName);
+        Map<K, T> re = new LinkedHashMap<K, T>();
+        if (ids == null) {
+            return re;
+        }
+        for (K id : ids) {
+            T obj = id == null ? null : found.get(this.pkKey(id));
+            if (obj != null) {
+                re.put(id, obj);
+            }
+        }
+        return re;
+    }
+
+    /**
+     * @return 统一后的主键到对象的映射
+     */
+    private Map<Object, T> fetchByKeys(Collection<?> ids, String fieldName) {
+        Map<Object, T> found = new HashMap<Object, T>();
+        if (ids == null || ids.isEmpty()) {
+            return found;
+        }
+        MappingField pk = this.pkField();
+        EntityCache<T> cache = fieldName == null ? this.activeEntityCache() : null;
+        Set<Object> missing = new LinkedHashSet<Object>();
+        for (Object id : ids) {
+            if (id == null) {
+                continue;
+            }
+            Object key = this.pkKey(id);
+            T obj = cache == null ? null : cache.get(key);
+            if (obj != null) {
+                found.put(key, obj);
+            } else {
+                missing.add(key);
+            }
+        }
+        Dao dao = fieldName == null ? this.dao() : this.projectionDao("(" + fieldName + ")|^" + pk.getName() + "$");
+        for (List<Object> chunk : partition(new ArrayList<Object>(missing), DEFAULT_BATCH_SIZE)) {
+            for (T obj : dao.query(this.getEntityClass(), Cnd.where(pk.getName(), "in", chunk))) {
+                Object key = this.pkKey(pk.getValue(obj));
+                found.put(key, obj);
+                if (cache != null) {
+                    cache.put(key, obj);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 主键统一为 Long(数字主键) 或 String(字符主键), 与实体缓存的键一致
+     */
+    private Object pkKey(Object id) {
+        if (this.getEntity().getPkType() == PkType.ID) {
+            return id instanceof Number ? ((Number) id).longValue() : Castors.me().castTo(id, Long.class);
+        }
+        return id.toString();
     }
 
     /**
@@ -116,7 +459,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public T fetch(Long id, String fieldName) {
-        return Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName)).fetch(this.getEntityClass(), id);
+        return this.projectionDao(fieldName).fetch(this.getEntityClass(), id);
     }
 
     /**
@@ -127,7 +470,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public T fetch(String id, String fieldName) {
-        return Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName)).fetch(this.getEntityClass(), id);
+        return this.projectionDao(fieldName).fetch(this.getEntityClass(), id);
     }
 
 
@@ -168,7 +511,20 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return 实体, 如不存在则为null
      */
     public T fetch(Condition cnd) {
-        return dao().fetch(getEntityClass(), cnd);
+        IdentityMap map = this.identityMap();
+        if (map == null || cnd == null) {
+            return dao().fetch(getEntityClass(), cnd);
+        }
+        String key = cnd.toSql(this.getEntity());
+        T obj = map.getByCondition(this.getEntity(), key);
+        if (obj == null) {
+            obj = dao().fetch(getEntityClass(), cnd);
+            if (obj != null) {
+                obj = this.identify(map, obj);
+                map.putByCondition(this.getEntity(), key, obj);
+            }
+        }
+        return obj;
     }
 
     /**
@@ -252,6 +608,180 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
         return this.dao().insertRelation(obj, regex);
     }
 
+    /**
+     * 分批批量插入
+     * <p>
+     * 按 batchSize 将列表切分, 每一批通过 dao.insert 作为一次 JDBC batch 发送, 所有批次在同一个事务中执行。
+     * 自增主键(@Id)且数据库支持 getGeneratedKeys 时会回填主键; 实体有 @Prev/@Next 时逐个对象 insert, 以执行这些语句
+     *
+     * @param list      要插入的对象列表
+     * @param batchSize 每批条数, 小于等于0时使用默认值 {@link #DEFAULT_BATCH_SIZE}
+     * @return 每一批插入的条数
+     */
+    public int[] insertBatch(List<T> list, int batchSize) {
+        if (list == null || list.isEmpty()) {
+            return new int[0];
+        }
+        final List<List<T>> chunks = partition(list, batchSize);
+        final int[] counts = new int[chunks.size()];
+        Trans.exec(new Atom() {
+            public void run() {
+                for (int i = 0; i < chunks.size(); i++) {
+                    counts[i] = insertChunk(chunks.get(i));
+                }
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * 分批批量插入, 每一批插入后同时插入符合正则表达式的关联字段对象
+     * <p>
+     * 主表按批发送, 关联对象仍逐个对象调用 insertLinks, 全部在同一个事务中执行
+     *
+     * @param list      要插入的对象列表
+     * @param regex     正则表达式，描述了什么样的关联字段将被关注。如果为 null，则表示全部的关联字段都会被插入
+     * @param batchSize 每批条数, 小于等于0时使用默认值 {@link #DEFAULT_BATCH_SIZE}
+     * @return 每一批插入的主表条数
+     * @see #insertBatch(List, int)
+     */
+    public int[] insertWithBatch(List<T> list, final String regex, int batchSize) {
+        if (list == null || list.isEmpty()) {
+            return new int[0];
+        }
+        final List<List<T>> chunks = partition(list, batchSize);
+        final int[] counts = new int[chunks.size()];
+        Trans.exec(new Atom() {
+            public void run() {
+                for (int i = 0; i < chunks.size(); i++) {
+                    List<T> chunk = chunks.get(i);
+                    counts[i] = insertChunk(chunk);
+                    for (T obj : chunk) {
+                        dao().insertLinks(obj, regex);
+                    }
+                }
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * 按主键分批批量更新全部非主键字段, 每一批作为一次 JDBC batch 发送, 所有批次在同一个事务中执行。
+     * 有版本号字段(@Column(version = true))时按版本号更新, 版本号不一致的对象计为0, 更新成功的对象版本号加1
+     *
+     * @param list      要更新的对象列表
+     * @param batchSize 每批条数, 小于等于0时使用默认值 {@link #DEFAULT_BATCH_SIZE}
+     * @return 每个对象影响的条数, 与 list 一一对应
+     */
+    public int[] updateBatch(List<T> list, int batchSize) {
+        if (list == null || list.isEmpty()) {
+            return new int[0];
+        }
+        return this.updateRows(list, batchSize, false);
+    }
+
+    /**
+     * 按主键批量更新, 忽略值为null的字段
+     *
+     * @param list 要更新的对象列表
+     * @return 每个对象影响的条数, 与 list 一一对应
+     * @see #updateIgnoreNullBatch(List, int)
+     */
+    public int[] updateIgnoreNullBatch(List<T> list) {
+        return this.updateIgnoreNullBatch(list, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 按主键批量更新, 忽略值为null的字段
+     * <p>
+     * 非null字段相同的对象共用一条语句, 按 batchSize 作为一次 JDBC batch 发送;
+     * 全部字段都为null的对象不执行更新, 计为0。所有批次在同一个事务中执行, 版本号字段的处理同 {@link #updateBatch(List, int)}
+     *
+     * @param list      要更新的对象列表
+     * @param batchSize 每批条数, 小于等于0时使用默认值 {@link #DEFAULT_BATCH_SIZE}
+     * @return 每个对象影响的条数, 与 list 一一对应
+     */
+    public int[] updateIgnoreNullBatch(List<T> list, int batchSize) {
+        if (list == null || list.isEmpty()) {
+            return new int[0];
+        }
+        return this.updateRows(list, batchSize, true);
+    }
+
+    /**
+     * 分批插入或更新, 按主键判断记录是否已存在
+     *
+     * @param list         要写入的对象列表
+     * @param updateFields 记录已存在时要更新的字段, 为null时更新全部非主键字段
+     * @return 每一批影响的条数(由驱动返回, MySQL 更新一条记录时计为2)
+     * @see #upsertBatch(List, FieldFilter, int)
+     */
+    public int[] upsertBatch(List<T> list, FieldFilter updateFields) {
+        return this.upsertBatch(list, updateFields, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 分批插入或更新, 按主键判断记录是否已存在
+     * <p>
+     * MySQL 使用 ON DUPLICATE KEY UPDATE, PostgreSQL 使用 ON CONFLICT, H2/Oracle 使用 MERGE, 每一批作为一次 JDBC batch 发送;
+     * 其他数据库每一批先查出已存在的主键, 再分别批量插入和批量更新。
+     * 自增主键为空或0的对象直接插入。所有批次在同一个事务中执行
+     *
+     * @param list         要写入的对象列表
+     * @param updateFields 记录已存在时要更新的字段, 为null时更新全部非主键字段
+     * @param batchSize    每批条数, 小于等于0时使用默认值 {@link #DEFAULT_BATCH_SIZE}
+     * @return 每一批影响的条数(由驱动返回, MySQL 更新一条记录时计为2)
+     */
+    public int[] upsertBatch(List<T> list, FieldFilter updateFields, int batchSize) {
+        if (list == null || list.isEmpty()) {
+            return new int[0];
+        }
+        final Entity<T> en = this.getEntity();
+        if (en.getPkType() == PkType.UNKNOWN) {
+            throw new IllegalArgumentException("no support , without pks");
+        }
+        List<T> inserts = new ArrayList<T>();
+        List<T> upserts = new ArrayList<T>();
+        for (T obj : list) {
+            if (en.getPkType() == PkType.ID && en.getIdField().isAutoIncreasement()) {
+                Number n = (Number) en.getIdField().getValue(obj);
+                if (n == null || n.longValue() == 0) {
+                    inserts.add(obj);
+                    continue;
+                }
+            }
+            upserts.add(obj);
+        }
+        FieldMatcher matcher = updateFields == null ? null : updateFields.map().get(this.getEntityClass());
+        final List<MappingField> fields = new ArrayList<MappingField>();
+        final List<MappingField> updates = new ArrayList<MappingField>();
+        for (MappingField mf : en.getMappingFields()) {
+            if (mf.isReadonly() || (!mf.isInsert() && !mf.isPk()) || (mf.isAutoIncreasement() && !mf.isPk())) {
+                continue;
+            }
+            fields.add(mf);
+            if (!mf.isPk() && mf.isUpdate() && (matcher == null || matcher.match(mf.getName()))) {
+                updates.add(mf);
+            }
+        }
+        final String sql = this.upsertSql(en, fields, updates);
+        final List<List<T>> insertChunks = partition(inserts, batchSize);
+        final List<List<T>> upsertChunks = partition(upserts, batchSize);
+        final int[] re = new int[insertChunks.size() + upsertChunks.size()];
+        Trans.exec(new Atom() {
+            public void run() {
+                int i = 0;
+                for (List<T> chunk : insertChunks) {
+                    re[i++] = insertChunk(chunk);
+                }
+                for (List<T> chunk : upsertChunks) {
+                    re[i++] = sql == null ? upsertChunk(en, fields, updates, chunk) : sum(executeBatch(sql, fields, chunk));
+                }
+            }
+        });
+        return re;
+    }
+
     /**
      * 更新数据
      *
@@ -358,7 +888,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param ids
      */
     public void delete(Long[] ids) {
-        this.dao().clear(this.getEntityClass(), Cnd.where("id", "in", ids));
+        this.deleteBatch(Arrays.asList(ids), DEFAULT_BATCH_SIZE);
     }
 
     /**
@@ -367,7 +897,73 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param ids
      */
     public void delete(String[] ids) {
-        this.dao().clear(this.getEntityClass(), Cnd.where("id", "in", ids));
+        this.deleteBatch(Arrays.asList(ids), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 按主键分批删除, 所有批次在同一个事务中执行
+     *
+     * @param ids       主键
+     * @param chunkSize 每批条数
+     * @return 删除的总条数
+     */
+    public int deleteBatch(Collection<?> ids, int chunkSize) {
+        return this.deleteBatch(ids, chunkSize, false);
+    }
+
+    /**
+     * 按主键分批删除, 主键列取自实体的 @Id 或 @Name
+     *
+     * @param ids           主键
+     * @param chunkSize     每批条数
+     * @param transPerChunk 为true时每批单独一个事务(已在外部事务中时仍加入外部事务), 缩短锁的持有时间
+     * @return 删除的总条数
+     */
+    public int deleteBatch(Collection<?> ids, int chunkSize, boolean transPerChunk) {
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+        final String pk = this.pkField().getName();
+        List<Condition> cnds = new ArrayList<Condition>();
+        for (List<Object> chunk : partition(new ArrayList<Object>(ids), chunkSize)) {
+            cnds.add(Cnd.where(pk, "in", chunk));
+        }
+        return this.clearChunks(cnds, transPerChunk);
+    }
+
+    /**
+     * 按对象的主键分批删除, 支持复合主键, 所有批次在同一个事务中执行
+     *
+     * @param list 对象列表
+     * @return 删除的总条数
+     */
+    public int deleteAll(List<T> list) {
+        if (list == null || list.isEmpty()) {
+            return 0;
+        }
+        Entity<T> en = this.getEntity();
+        List<Condition> cnds = new ArrayList<Condition>();
+        for (List<T> chunk : partition(list, DEFAULT_BATCH_SIZE)) {
+            if (en.getPkType() == PkType.COMPOSITE) {
+                Cnd cnd = Cnd.NEW();
+                for (T obj : chunk) {
+                    SqlExpressionGroup group = null;
+                    for (MappingField mf : en.getCompositePKFields()) {
+                        group = group == null ? Cnd.exps(mf.getName(), "=", mf.getValue(obj)) : group.and(mf.getName(), "=", mf.getValue(obj));
+                    }
+                    cnd.or(group);
+                }
+                cnds.add(cnd);
+            } else {
+                MappingField pk = this.pkField();
+                List<Object> ids = new ArrayList<Object>(chunk.size());
+                for (T obj : chunk) {
+                    ids.add(pk.getValue(obj));
+                }
+                cnds.add(Cnd.where(pk.getName(), "in", ids));
+            }
+        }
+        return this.clearChunks(cnds, false);
     }
 
     /**
@@ -431,6 +1027,39 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
         return this.dao().clearLinks(obj, regex);
     }
 
+    /**
+     * 批量加载一组对象的关联对象, 每个关联只按 IN (...) 查询一次(分批), 避免逐个对象查询
+     *
+     * @param list     对象列表
+     * @param linkName 关联字段，支持正则 ^(a|b)$
+     * @return 传入的列表
+     */
+    public List<T> fetchLinksBatch(List<T> list, String linkName) {
+        return this.fetchLinksBatch(this.dao(), list, linkName, null);
+    }
+
+    /**
+     * 批量加载一组对象的关联对象, 关联对象按条件过滤和排序
+     *
+     * @param list     对象列表
+     * @param linkName 关联字段，支持正则 ^(a|b)$
+     * @param cnd      关联对象的条件, 只作用于 @Many 和 @ManyMany; 带分页时逐个对象查询
+     * @return 传入的列表
+     */
+    public List<T> fetchLinksBatch(List<T> list, String linkName, Condition cnd) {
+        return this.fetchLinksBatch(this.dao(), list, linkName, cnd);
+    }
+
+    /**
+     * 通过指定的 Dao(例如字段过滤视图) 批量加载关联对象
+     */
+    protected List<T> fetchLinksBatch(Dao dao, List<T> list, String linkName, Condition cnd) {
+        if (linkBatchSize <= 0) {
+            return dao.fetchLinks(list, linkName, cnd);
+        }
+        return LinkLoader.fetchLinks(dao, list, linkName, cnd, linkBatchSize);
+    }
+
     /**
      * 通过LONG主键获取部分字段值
      *
@@ -439,8 +1068,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public T getField(String fieldName, long id) {
-        return Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName))
-                .fetch(this.getEntityClass(), id);
+        return this.projectionDao(fieldName).fetch(this.getEntityClass(), id);
     }
 
     /**
@@ -451,8 +1079,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public T getField(String fieldName, String id) {
-        return Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName))
-                .fetch(this.getEntityClass(), id);
+        return this.projectionDao(fieldName).fetch(this.getEntityClass(), id);
     }
 
     /**
@@ -463,8 +1090,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public T getField(String fieldName, Condition cnd) {
-        return Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName))
-                .fetch(this.getEntityClass(), cnd);
+        return this.projectionDao(fieldName).fetch(this.getEntityClass(), cnd);
     }
 
     /**
@@ -475,8 +1101,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public List<T> query(String fieldName, Condition cnd) {
-        return Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName))
-                .query(this.getEntityClass(), cnd);
+        return this.projectionDao(fieldName).query(this.getEntityClass(), cnd);
     }
 
     /**
@@ -486,8 +1111,12 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      *            只有在调用这个函数的时候， cnd.limit 才会生效
      * @return 对象列表
      */
-    public List<T> query(Condition cnd) {
-        return dao().query(getEntityClass(), cnd);
+    public List<T> query(final Condition cnd) {
+        return this.cachedQuery("query", cnd, null, new Callable<List<T>>() {
+            public List<T> call() {
+                return dao().query(getEntityClass(), cnd);
+            }
+        });
     }
 
     /**
@@ -496,7 +1125,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public List<T> query() {
-        return dao().query(getEntityClass(), null);
+        return this.query((Condition) null);
     }
 
     /**
@@ -517,7 +1146,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
     public List<T> query(Condition cnd, String linkName) {
         List<T> list = this.dao().query(this.getEntityClass(), cnd);
         if (!Strings.isBlank(linkName)) {
-            this.dao().fetchLinks(list, linkName);
+            this.fetchLinksBatch(list, linkName);
         }
         return list;
     }
@@ -532,10 +1161,9 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public List<T> query(Condition cnd, String linkName, String fieldName, Pager pager) {
-        List<T> list = Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName))
-                .query(this.getEntityClass(), cnd, pager);
+        List<T> list = this.projectionDao(fieldName).query(this.getEntityClass(), cnd, pager);
         if (!Strings.isBlank(linkName)) {
-            this.dao().fetchLinks(list, linkName);
+            this.fetchLinksBatch(list, linkName);
         }
         return list;
     }
@@ -550,14 +1178,17 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param pager     分页
      * @return
      */
-    public QueryResult queryPager(Condition cnd, String linkName, String fieldName, Pager pager) {
-        List<T> list = Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName))
-                .query(this.getEntityClass(), cnd, pager);
-        if (!Strings.isBlank(linkName)) {
-            this.dao().fetchLinks(list, linkName);
-        }
-        pager.setRecordCount(this.dao().count(this.getEntityClass(), cnd));
-        return new QueryResult(list, pager);
+    public QueryResult queryPager(final Condition cnd, final String linkName, final String fieldName, final Pager pager) {
+        return this.queryPagerResult(new Callable<List<T>>() {
+            public List<T> call() {
+                List<T> list = projectionDao(fieldName)
+                        .query(getEntityClass(), cnd, pager);
+                if (!Strings.isBlank(linkName)) {
+                    fetchLinksBatch(list, linkName);
+                }
+                return list;
+            }
+        }, cnd, pager);
     }
 
     /**
@@ -570,13 +1201,16 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param cnd1       副表条件
      * @return
      */
-    public QueryResult queryByJoinPager(Condition cnd, String linkName, String filedName1, Pager pager, Condition cnd1) {
-        List<T> list = this.dao().query(this.getEntityClass(), cnd, pager, filedName1);
-        if (Strings.isNotBlank(linkName)) {
-            Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), filedName1)).fetchLinks(list, linkName, cnd1);
-        }
-        pager.setRecordCount(this.dao().count(this.getEntityClass(), cnd));
-        return new QueryResult(list, pager);
+    public QueryResult queryByJoinPager(final Condition cnd, final String linkName, final String filedName1, final Pager pager, final Condition cnd1) {
+        return this.queryPagerResult(new Callable<List<T>>() {
+            public List<T> call() {
+                List<T> list = projectionDao(filedName1).query(getEntityClass(), cnd, pager);
+                if (Strings.isNotBlank(linkName)) {
+                    fetchLinksBatch(projectionDao(filedName1), list, linkName, cnd1);
+                }
+                return list;
+            }
+        }, cnd, pager);
     }
 
     /**
@@ -591,9 +1225,9 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public List<T> queryByJoin(Condition cnd, String linkName, String fieldName1, Pager pager, Class<?> klass, String fieldName2) {
-        List<T> list = this.dao().query(this.getEntityClass(), cnd, pager, fieldName1);
+        List<T> list = this.projectionDao(fieldName1).query(this.getEntityClass(), cnd, pager);
         if (Strings.isNotBlank(linkName)) {
-            Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName1).set(klass, fieldName2)).fetchLinks(list, linkName);
+            this.fetchLinksBatch(this.projectionDao(fieldName1, klass, fieldName2), list, linkName, null);
         }
         return list;
     }
@@ -609,9 +1243,9 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public List<T> queryByJoin(Condition cnd, String linkName, String filedName1, Pager pager, Condition cnd1, String filedName2) {
-        List<T> list = this.dao().query(this.getEntityClass(), cnd, pager, filedName1);
+        List<T> list = this.projectionDao(filedName1).query(this.getEntityClass(), cnd, pager);
         if (Strings.isNotBlank(linkName)) {
-            Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), filedName1).set(this.getEntityClass(), filedName2)).fetchLinks(list, linkName, cnd1);
+            this.fetchLinksBatch(this.projectionDao(filedName1, this.getEntityClass(), filedName2), list, linkName, cnd1);
         }
         return list;
     }
@@ -628,9 +1262,9 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public List<T> queryByJoin(Condition cnd, String linkName, String fieldName1, Pager pager, Class<?> klass, String fieldName2, Class<?> klass1, String fieldName3) {
-        List<T> list = this.dao().query(this.getEntityClass(), cnd, pager, fieldName1);
+        List<T> list = this.projectionDao(fieldName1).query(this.getEntityClass(), cnd, pager);
         if (Strings.isNotBlank(linkName)) {
-            Daos.ext(this.dao(), FieldFilter.create(this.getEntityClass(), fieldName1).set(klass, fieldName2).set(klass1, fieldName3)).fetchLinks(list, linkName);
+            this.fetchLinksBatch(this.projectionDao(fieldName1, klass, fieldName2, klass1, fieldName3), list, linkName, null);
         }
         return list;
     }
@@ -642,10 +1276,12 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param cnd
      * @return
      */
-    public QueryResult queryPager(Pager pager, Condition cnd) {
-        List<T> list = this.dao().query(this.getEntityClass(), cnd, pager);
-        pager.setRecordCount(this.dao().count(this.getEntityClass(), cnd));
-        return new QueryResult(list, pager);
+    public QueryResult queryPager(final Pager pager, final Condition cnd) {
+        return this.queryPagerResult(new Callable<List<T>>() {
+            public List<T> call() {
+                return dao().query(getEntityClass(), cnd, pager);
+            }
+        }, cnd, pager);
     }
 
 
@@ -662,13 +1298,16 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param cnd      查询条件
      * @return
      */
-    public QueryResult queryPager(Pager pager, String linkName, Condition cnd) {
-        List<T> list = this.dao().query(this.getEntityClass(), cnd, pager);
-        if (Strings.isNotBlank(linkName)) {
-            this.dao().fetchLinks(list, linkName);
-        }
-        pager.setRecordCount(this.dao().count(this.getEntityClass(), cnd));
-        return new QueryResult(list, pager);
+    public QueryResult queryPager(final Pager pager, final String linkName, final Condition cnd) {
+        return this.queryPagerResult(new Callable<List<T>>() {
+            public List<T> call() {
+                List<T> list = dao().query(getEntityClass(), cnd, pager);
+                if (Strings.isNotBlank(linkName)) {
+                    fetchLinksBatch(list, linkName);
+                }
+                return list;
+            }
+        }, cnd, pager);
     }
 
 
@@ -683,7 +1322,7 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
     public List<T> query(Condition cnd, String linkName, Pager pager) {
         List<T> list = this.dao().query(this.getEntityClass(), cnd, pager);
         if (!Strings.isBlank(linkName)) {
-            this.dao().fetchLinks(list, linkName);
+            this.fetchLinksBatch(list, linkName);
         }
         return list;
     }
@@ -695,54 +1334,434 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @param pager 分页对象
      * @return
      */
-    public List<T> query(Condition cnd, Pager pager) {
-        return dao().query(getEntityClass(), cnd, pager);
+    public List<T> query(final Condition cnd, final Pager pager) {
+        return this.cachedQuery("query", cnd, pager, new Callable<List<T>>() {
+            public List<T> call() {
+                return dao().query(getEntityClass(), cnd, pager);
+            }
+        });
     }
 
     /**
-     * 自定义sql语句获取列表
+     * 在分片键对应的分表上执行, 其中的读写操作都作用于该分表
      *
-     * @param sql
-     * @param <T>
-     * @return
+     * @param shardKey 分片键
+     * @param callable 数据库操作
+     * @param <R>      返回类型
+     * @return 结果
      */
-    public <T> List<T> getByList(String sql) {
-        Sql queryRecord = Sqls.queryRecord(sql);
-        this.dao().execute(queryRecord);
-        List<Record> recordList = queryRecord.getList(Record.class);
-        List<T> list = new ArrayList<T>();
-        if (recordList != null && recordList.size() > 0) {
-            Object obj = null;
-            for (Record re : recordList) {
-                obj = re.toEntity(this.getEntity());
-                list.add((T) obj);
-            }
+    public <R> R onShard(Object shardKey, Callable<R> callable) {
+        Object old = TableName.set(this.shardingStrategy().shard(this.getEntity(), shardKey));
+        try {
+            return call(callable);
+        } finally {
+            TableName.set(old);
         }
-        return list;
     }
 
     /**
-     * 自定义语句获取vo列表
+     * 跨分片查询。各分片查询前 offset + pageSize 条, 合并后按条件中的 ORDER BY 排序再截取当前页,
+     * 读取的行数为 分片数 * (offset + pageSize), 翻页越深代价越大, offset + pageSize 超过 maxShardWindow 时拒绝查询,
+     * 深翻页应改用 onShard 中的 queryKeyset; 没有 ORDER BY 时按分片顺序拼接。
+     * 设置了 shardExecutor 且不在事务中时各分片并发查询
      *
-     * @param t
-     * @param sql
-     * @param <T>
-     * @return
+     * @param cnd   条件, ORDER BY 只支持实体字段
+     * @param pager 分页, 为null时返回全部分片的全部记录
+     * @return 当前页
+     * @throws IllegalArgumentException offset + pageSize 超过 maxShardWindow, 或 ORDER BY 不是实体字段
      */
-    public <T> QueryResult getByListVO(Class<?> t, String sql) {
-        QueryResult qr = new QueryResult();
-        Sql queryRecord = Sqls.queryRecord(sql);
-        this.dao().execute(queryRecord);
-        List<Record> recordList = queryRecord.getList(Record.class);
+    public List<T> queryShards(final Condition cnd, Pager pager) {
+        if (pager != null && pager.getOffset() + pager.getPageSize() > maxShardWindow) {
+            throw new IllegalArgumentException("sharded page window " + (pager.getOffset() + pager.getPageSize())
+                    + " exceeds maxShardWindow " + maxShardWindow);
+        }
+        final Comparator<T> order = this.orderOf(cnd);
+        final Pager head = pager == null ? null : firstRows(pager.getOffset() + pager.getPageSize());
+        List<List<T>> parts = this.fanOut(cnd, new Callable<List<T>>() {
+            public List<T> call() {
+                return query(cnd, head);
+            }
+        });
         List<T> list = new ArrayList<T>();
-        if (recordList != null && recordList.size() > 0) {
-            Object obj = null;
-            for (Record re : recordList) {
-                obj = re.toEntity(this.dao().getEntity(t));
-                list.add((T) obj);
+        for (List<T> part : parts) {
+            list.addAll(part);
+        }
+        if (order != null) {
+            Collections.sort(list, order);
+        }
+        if (pager == null) {
+            return list;
+        }
+        int from = Math.min(pager.getOffset(), list.size());
+        int to = Math.min(from + pager.getPageSize(), list.size());
+        return new ArrayList<T>(list.subList(from, to));
+    }
+
+    /**
+     * 跨分片统计条数, 各分片 count 之和
+     *
+     * @param cnd 条件
+     * @return 条数
+     */
+    public int countShards(final Condition cnd) {
+        int re = 0;
+        for (Integer n : this.fanOut(cnd, new Callable<Integer>() {
+            public Integer call() {
+                return count(cnd);
             }
+        })) {
+            re += n;
+        }
+        return re;
+    }
+
+    /**
+     * 跨分片分页查询
+     *
+     * @param pager 分页
+     * @param cnd   条件, ORDER BY 只支持实体字段
+     * @return 当前页及各分片的总条数
+     * @see #queryShards(Condition, Pager)
+     */
+    public QueryResult queryPagerShards(Pager pager, Condition cnd) {
+        List<T> list = this.queryShards(cnd, pager);
+        pager.setRecordCount(this.countShards(cnd));
+        return new QueryResult(list, pager);
+    }
+
+    /**
+     * 按主键升序的键集(seek)分页
+     *
+     * @param cnd      查询条件, 其中的排序会被忽略
+     * @param token    上一页返回的续页标记, 第一页传null
+     * @param pageSize 每页条数
+     * @return 当前页及下一页标记
+     */
+    public KeysetPage<T> queryKeyset(Condition cnd, String token, int pageSize) {
+        return this.queryKeyset(cnd, token, pageSize, false);
+    }
+
+    /**
+     * 键集(seek)分页, 用上一页最后一条记录的排序键值作为条件定位下一页, 翻到多深代价都相同
+     * <p>
+     * 排序键组合必须唯一, 且最好有对应的索引
+     *
+     * @param cnd       查询条件, 其中的排序会被忽略
+     * @param token     上一页返回的续页标记, 第一页传null
+     * @param pageSize  每页条数
+     * @param desc      是否降序
+     * @param keyFields 排序键(java字段名), 不传时使用主键(@Id/@Name/@Pk)
+     * @return 当前页及下一页标记
+     */
+    public KeysetPage<T> queryKeyset(Condition cnd, String token, int pageSize, boolean desc, String... keyFields) {
+        Entity<T> en = this.getEntity();
+        List<MappingField> keys = this.keysetFields(en, keyFields);
+        Cnd seek = this.whereOf(en, cnd);
+        if (Strings.isNotBlank(token)) {
+            seek.and(keysetExpression(keys, KeysetPage.decode(token, keys), desc));
+        }
+        for (MappingField mf : keys) {
+            seek.orderBy(mf.getName(), desc ? "desc" : "asc");
         }
-        qr.setList(list);
+        List<T> list = this.dao().query(this.getEntityClass(), seek, this.dao().createPager(1, pageSize + 1));
+        if (list.size() <= pageSize) {
+            return new KeysetPage<T>(list, null);
+        }
+        list = new ArrayList<T>(list.subList(0, pageSize));
+        return new KeysetPage<T>(list, KeysetPage.encode(keys, list.get(pageSize - 1)));
+    }
+
+    /**
+     * 游标方式逐行遍历, 内存占用与结果集大小无关
+     *
+     * @param cnd      查询条件
+     * @param callback 回调, 可以抛出 ExitLoop 提前结束
+     * @return 遍历的条数
+     */
+    public int each(Condition cnd, Each<T> callback) {
+        return this.each(cnd, callback, false);
+    }
+
+    /**
+     * 游标方式逐行遍历, 内存占用与结果集大小无关
+     *
+     * @param cnd      查询条件
+     * @param callback 回调, 可以抛出 ExitLoop 提前结束
+     * @param reuse    是否复用同一个对象实例承载每一行, 为true时回调中不能保存对象引用
+     * @return 遍历的条数
+     */
+    public int each(Condition cnd, final Each<T> callback, final boolean reuse) {
+        final Entity<T> en = this.getEntity();
+        final Sql sql = this.createQuerySql(en, cnd);
+        final int[] count = new int[1];
+        this.dao().run(new ConnCallback() {
+            public void invoke(Connection conn) throws Exception {
+                PreparedStatement ps = ResultSetCursor.prepare(conn, sql, fetchSize);
+                ResultSet rs = null;
+                try {
+                    SqlStatsInterceptor.add(1);
+                    rs = ps.executeQuery();
+                    T row = null;
+                    while (rs.next()) {
+                        if (reuse && row != null) {
+                            for (MappingField mf : en.getMappingFields()) {
+                                mf.injectValue(row, rs, null);
+                            }
+                        } else {
+                            row = en.getObject(rs, null);
+                        }
+                        try {
+                            callback.invoke(count[0]++, row, -1);
+                        } catch (ContinueLoop e) {
+                            // 继续下一行
+                        } catch (ExitLoop e) {
+                            break;
+                        }
+                    }
+                } finally {
+                    Daos.safeClose(ps, rs);
+                }
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * 查询一个整数列, 直接从结果集读取, 不创建实体对象
+     *
+     * @param fieldName java字段名
+     * @param cnd       查询条件
+     * @return 列值, null 值被跳过
+     */
+    public LongList queryLongColumn(String fieldName, Condition cnd) {
+        final LongList list = new LongList();
+        this.queryLongColumn(fieldName, cnd, new LongConsumer() {
+            public void accept(long value) {
+                list.add(value);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * 游标方式逐行读取一个整数列, 内存占用与结果集大小无关
+     *
+     * @param fieldName java字段名
+     * @param cnd       查询条件
+     * @param callback  回调, null 值被跳过
+     * @return 回调的次数
+     */
+    public int queryLongColumn(String fieldName, Condition cnd, final LongConsumer callback) {
+        return this.eachColumn(fieldName, cnd, new SqlCallback() {
+            public Object invoke(Connection conn, ResultSet rs, Sql sql) throws SQLException {
+                int n = 0;
+                while (rs.next()) {
+                    long v = rs.getLong(1);
+                    if (!rs.wasNull()) {
+                        callback.accept(v);
+                        n++;
+                    }
+                }
+                return n;
+            }
+        });
+    }
+
+    /**
+     * 查询一个 int 列, 直接从结果集读取, 不创建实体对象
+     *
+     * @param fieldName java字段名
+     * @param cnd       查询条件
+     * @return 列值, null 值被跳过
+     */
+    public IntList queryIntColumn(String fieldName, Condition cnd) {
+        final IntList list = new IntList();
+        this.queryIntColumn(fieldName, cnd, new IntConsumer() {
+            public void accept(int value) {
+                list.add(value);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * 游标方式逐行读取一个 int 列
+     *
+     * @param fieldName java字段名
+     * @param cnd       查询条件
+     * @param callback  回调, null 值被跳过
+     * @return 回调的次数
+     */
+    public int queryIntColumn(String fieldName, Condition cnd, final IntConsumer callback) {
+        return this.eachColumn(fieldName, cnd, new SqlCallback() {
+            public Object invoke(Connection conn, ResultSet rs, Sql sql) throws SQLException {
+                int n = 0;
+                while (rs.next()) {
+                    int v = rs.getInt(1);
+                    if (!rs.wasNull()) {
+                        callback.accept(v);
+                        n++;
+                    }
+                }
+                return n;
+            }
+        });
+    }
+
+    /**
+     * 查询一个字符串列, 不创建实体对象
+     *
+     * @param fieldName java字段名
+     * @param cnd       查询条件
+     * @return 列值, 包含 null
+     */
+    public List<String> queryStringColumn(String fieldName, Condition cnd) {
+        final List<String> list = new ArrayList<String>();
+        this.queryStringColumn(fieldName, cnd, new Consumer<String>() {
+            public void accept(String value) {
+                list.add(value);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * 游标方式逐行读取一个字符串列
+     *
+     * @param fieldName java字段名
+     * @param cnd       查询条件
+     * @param callback  回调, 包含 null 值
+     * @return 回调的次数
+     */
+    public int queryStringColumn(String fieldName, Condition cnd, final Consumer<String> callback) {
+        return this.eachColumn(fieldName, cnd, new SqlCallback() {
+            public Object invoke(Connection conn, ResultSet rs, Sql sql) throws SQLException {
+                int n = 0;
+                while (rs.next()) {
+                    callback.accept(rs.getString(1));
+                    n++;
+                }
+                return n;
+            }
+        });
+    }
+
+    /**
+     * 游标方式查询, 返回的流需要关闭(try-with-resources)以释放连接, 读取到末尾时也会自动释放。
+     * 语句不经过 Dao 拦截器, 语句数在这里计入, 不输出慢 SQL
+     *
+     * @param cnd 查询条件
+     * @return 逐行读取的流
+     */
+    public Stream<T> stream(Condition cnd) {
+        final Entity<T> en = this.getEntity();
+        SqlStatsInterceptor.add(1);
+        return new ResultSetCursor<T>(this.dataSource(), this.createQuerySql(en, cnd), fetchSize) {
+            protected T map(ResultSet rs) {
+                return en.getObject(rs, null);
+            }
+        }.stream();
+    }
+
+    /**
+     * 游标方式导出为 CSV(UTF-8, 第一行为表头), 直接从结果集写出, 内存占用与结果集大小无关
+     *
+     * @param cnd        查询条件
+     * @param out        输出流, 不会被关闭
+     * @param fieldNames 导出的java字段, 也是表头; 不传时导出全部字段
+     * @return 导出的条数
+     */
+    public int exportCsv(Condition cnd, OutputStream out, String... fieldNames) {
+        return this.export(ResultSetExporter.Format.CSV, cnd, out, fieldNames);
+    }
+
+    /**
+     * 游标方式把自定义sql的结果导出为 CSV
+     *
+     * @param sql     sql语句
+     * @param params  参数, 为null时按普通sql执行
+     * @param out     输出流, 不会被关闭
+     * @param columns 导出的列(结果集列名, 不区分大小写), 也是表头; 不传时导出全部列
+     * @return 导出的条数
+     */
+    public int exportCsv(String sql, Map<String, Object> params, OutputStream out, String... columns) {
+        return this.export(ResultSetExporter.Format.CSV, sql, params, out, columns);
+    }
+
+    /**
+     * 游标方式导出为 JSON Lines(每行一个 JSON 对象, 键为java字段名), 内存占用与结果集大小无关
+     *
+     * @param cnd        查询条件
+     * @param out        输出流, 不会被关闭
+     * @param fieldNames 导出的java字段, 不传时导出全部字段
+     * @return 导出的条数
+     */
+    public int exportJsonLines(Condition cnd, OutputStream out, String... fieldNames) {
+        return this.export(ResultSetExporter.Format.JSON_LINES, cnd, out, fieldNames);
+    }
+
+    /**
+     * 游标方式把自定义sql的结果导出为 JSON Lines, 键为结果集列名
+     *
+     * @param sql     sql语句
+     * @param params  参数, 为null时按普通sql执行
+     * @param out     输出流, 不会被关闭
+     * @param columns 导出的列(结果集列名, 不区分大小写); 不传时导出全部列
+     * @return 导出的条数
+     */
+    public int exportJsonLines(String sql, Map<String, Object> params, OutputStream out, String... columns) {
+        return this.export(ResultSetExporter.Format.JSON_LINES, sql, params, out, columns);
+    }
+
+    /**
+     * 自定义sql语句获取列表
+     *
+     * @param sql
+     * @param <T>
+     * @return
+     */
+    public <T> List<T> getByList(String sql) {
+        return this.queryEntitiesAs(this.getEntity(), sql, null, null);
+    }
+
+    /**
+     * 带参数的自定义sql语句获取列表, 模板解析结果会被缓存
+     *
+     * @param sql    sql模板, 参数写作 @name
+     * @param params 参数
+     * @param <T>
+     * @return
+     */
+    public <T> List<T> getByList(String sql, Map<String, Object> params) {
+        return this.queryEntitiesAs(this.getEntity(), sql, params, null);
+    }
+
+    /**
+     * 自定义语句获取vo列表
+     *
+     * @param t
+     * @param sql
+     * @param <T>
+     * @return
+     */
+    public <T> QueryResult getByListVO(Class<?> t, String sql) {
+        QueryResult qr = new QueryResult();
+        qr.setList(this.queryEntities(this.dao().getEntity(t), sql, null, null));
+        return qr;
+    }
+
+    /**
+     * 带参数的自定义语句获取vo列表, 模板解析结果会被缓存
+     *
+     * @param t
+     * @param sql    sql模板, 参数写作 @name
+     * @param params 参数
+     * @param <T>
+     * @return
+     */
+    public <T> QueryResult getByListVO(Class<?> t, String sql, Map<String, Object> params) {
+        QueryResult qr = new QueryResult();
+        qr.setList(this.queryEntities(this.dao().getEntity(t), sql, params, null));
         return qr;
     }
 
@@ -766,34 +1785,45 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      * @return
      */
     public <T> QueryResult getPagerByList(String sql, Pager pager) {
-        QueryResult qr = new QueryResult();
-        /**先查询总行数*/
-        String countStr = "select count(1) count from (" + sql + ") t";
-        Sql queryRecord = Sqls.queryRecord(countStr);
-        this.dao().execute(queryRecord);
-        List<Record> list = queryRecord.getList(Record.class);
-        if (list != null && list.size() > 0) {
-            /**条数*/
-            int count = list.get(0).getInt("count");
-            /**查询结果*/
-            Sql query = Sqls.queryRecord(sql);
-            query.setPager(pager);
-            this.dao().execute(query);
-            list = query.getList(Record.class);
-            Object obj = null;
-            List<T> pagerList = new ArrayList<T>();
-            for (Record re : list) {
-                obj = re.toEntity(this.getEntity());
-                pagerList.add((T) obj);
-            }
-            qr.setList(pagerList);
-            /**分页构造*/
-            if (null != pager) {
-                pager.setRecordCount(count);
-                qr.setPager(pager);
-            }
-        }
-        return qr;
+        return this.getPagerByList(sql, null, pager);
+    }
+
+    /**
+     * 带参数的分页查询, 查询语句和 count 语句的模板解析结果都会被缓存
+     *
+     * @param sql    sql模板, 参数写作 @name
+     * @param params 参数, 为null时按普通sql执行
+     * @param pager  分页类
+     * @return
+     */
+    public <T> QueryResult getPagerByList(String sql, Map<String, Object> params, Pager pager) {
+        return this.getPagerByList(sql, null, params, pager);
+    }
+
+    /**
+     * 使用指定 count 语句的分页查询
+     *
+     * @param sql      sql模板, 参数写作 @name
+     * @param countSql count 语句, 与 sql 使用相同的参数, 为null时由 sql 改写生成
+     * @param params   参数, 为null时按普通sql执行
+     * @param pager    分页类
+     * @return
+     */
+    public <T> QueryResult getPagerByList(String sql, String countSql, Map<String, Object> params, Pager pager) {
+        return this.queryPagerBySql(this.getEntity(), sql, countSql, params, pager);
+    }
+
+    /**
+     * 不查询总行数的分页查询, 多取一行判断是否有下一页, 适合深翻页或 count 代价很高的语句。
+     * 返回的 pager 中 recordCount 为 已读取的行数 + (有下一页 ? 1 : 0), 只能用于判断 hasNext
+     *
+     * @param sql    sql模板, 参数写作 @name
+     * @param params 参数, 为null时按普通sql执行
+     * @param pager  分页类
+     * @return
+     */
+    public <T> QueryResult getPagerByListNoCount(String sql, Map<String, Object> params, Pager pager) {
+        return this.queryPagerBySql(this.getEntity(), sql, null, params, pager, false);
     }
 
     /**
@@ -807,38 +1837,57 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
      */
     @SuppressWarnings("unchecked")
     public <T> QueryResult getPagerByList(Class<?> t, String sql, Pager pager) {
-        QueryResult qr = new QueryResult();
-        /**先查询总行数*/
-        String countStr = "select count(1) count from (" + sql + ") t";
-        Sql queryRecord = Sqls.queryRecord(countStr);
-        this.dao().execute(queryRecord);
-        List<Record> list = queryRecord.getList(Record.class);
-        if (list != null && list.size() > 0) {
-            /**条数*/
-            int count = list.get(0).getInt("count");
-            /**查询结果*/
-            Sql query = Sqls.queryRecord(sql);
-            query.setPager(pager);
-            this.dao().execute(query);
-            list = query.getList(Record.class);
-            Object obj = null;
-            List<T> pagerList = new ArrayList<T>();
-            for (Record re : list) {
-                obj = re.toEntity(this.dao().getEntity(t));
-                pagerList.add((T) obj);
-            }
-            qr.setList(pagerList);
-            /**分页构造*/
-            if (null != pager) {
-                pager.setRecordCount(count);
-                qr.setPager(pager);
-            }
-        }
-        return qr;
+        return this.getPagerByList(t, sql, null, pager);
+    }
+
+    /**
+     * 带参数的自定义sql分页查询, 查询语句和 count 语句的模板解析结果都会被缓存
+     *
+     * @param t      对象
+     * @param sql    sql模板, 参数写作 @name
+     * @param params 参数, 为null时按普通sql执行
+     * @param pager  分页类
+     * @param <T>
+     * @return
+     */
+    public <T> QueryResult getPagerByList(Class<?> t, String sql, Map<String, Object> params, Pager pager) {
+        return this.getPagerByList(t, sql, null, params, pager);
+    }
+
+    /**
+     * 使用指定 count 语句的自定义sql分页查询
+     *
+     * @param t        对象
+     * @param sql      sql模板, 参数写作 @name
+     * @param countSql count 语句, 与 sql 使用相同的参数, 为null时由 sql 改写生成
+     * @param params   参数, 为null时按普通sql执行
+     * @param pager    分页类
+     * @param <T>
+     * @return
+     */
+    public <T> QueryResult getPagerByList(Class<?> t, String sql, String countSql, Map<String, Object> params, Pager pager) {
+        return this.queryPagerBySql(this.dao().getEntity(t), sql, countSql, params, pager);
+    }
+
+    /**
+     * 不查询总行数的自定义sql分页查询, 多取一行判断是否有下一页。
+     * 返回的 pager 中 recordCount 为 已读取的行数 + (有下一页 ? 1 : 0), 只能用于判断 hasNext
+     *
+     * @param t      对象
+     * @param sql    sql模板, 参数写作 @name
+     * @param params 参数, 为null时按普通sql执行
+     * @param pager  分页类
+     * @param <T>
+     * @return
+     */
+    public <T> QueryResult getPagerByListNoCount(Class<?> t, String sql, Map<String, Object> params, Pager pager) {
+        return this.queryPagerBySql(this.dao().getEntity(t), sql, null, params, pager, false);
     }
 
     /**
      * 复杂插入/更新语句
+     * <p>
+     * 自增主键为空或0时插入, 否则更新; @Name 和复合主键先更新, 没有更新到记录时再插入
      *
      * @param dao
      * @param obj
@@ -848,39 +1897,1426 @@ public class BaseServiceImpl<T> extends EntityService<T> implements IBaseService
     public static <T> T insertOrUpdate(Dao dao, T obj) {
         if (obj == null)
             return null;
-        Entity<T> en = (Entity<T>) dao.getEntity(obj.getClass());
+        Entity<?> en = dao.getEntity(obj.getClass());
         if (en.getPkType() == PkType.UNKNOWN)
             throw new IllegalArgumentException("no support , without pks");
-        boolean doInsert = false;
-        switch (en.getPkType()) {
-            case ID:
-                Number n = (Number) en.getIdField().getValue(obj);
-                if (n == null || n.intValue() == 0)
-                    doInsert = true;
-                break;
-            case NAME:
-                if (null == en.getNameField().getValue(obj))
-                    doInsert = false;
-                break;
-            case COMPOSITE:
-                doInsert = true;
-                for (MappingField mf : en.getCompositePKFields()) {
-                    Object v = mf.getValue(obj);
-                    if (v != null) {
-                        if (v instanceof Number && ((Number) v).intValue() != 0) {
-                            continue;
-                        }
-                        doInsert = true;
-                    }
-                }
-            case UNKNOWN:
-                throw Lang.impossible();
-        }
-        if (doInsert) {
-            return dao.insert(obj);
-        } else {
+        if (en.getPkType() == PkType.ID) {
+            Number n = (Number) en.getIdField().getValue(obj);
+            if (n == null || n.longValue() == 0)
+                return dao.insert(obj);
             dao.update(obj);
             return obj;
         }
+        for (MappingField mf : en.getPks()) {
+            if (mf.getValue(obj) == null)
+                return dao.insert(obj);
+        }
+        if (dao.update(obj) == 0)
+            dao.insert(obj);
+        return obj;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * 设置游标查询(each/stream)的 JDBC fetchSize
+     *
+     * @param fetchSize 为0时使用驱动默认值, MySQL 流式读取需设置为 Integer.MIN_VALUE
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public ExecutorService getPagerExecutor() {
+        return pagerExecutor;
+    }
+
+    /**
+     * 设置分页查询的线程池, 设置后 queryPager/queryByJoinPager 的分页查询和 count 会在两个连接上并发执行。
+     * JDK21 及以上可以传入 Executors.newVirtualThreadPerTaskExecutor()。
+     * 线程池大小需要小于连接池大小, 事务中仍然顺序执行
+     *
+     * @param pagerExecutor 线程池, 为null时关闭并发模式
+     */
+    public void setPagerExecutor(ExecutorService pagerExecutor) {
+        this.pagerExecutor = pagerExecutor;
+    }
+
+    public long getPagerTimeout() {
+        return pagerTimeout;
+    }
+
+    /**
+     * 设置并发分页查询的超时时间
+     *
+     * @param pagerTimeout 毫秒
+     */
+    public void setPagerTimeout(long pagerTimeout) {
+        this.pagerTimeout = pagerTimeout;
+    }
+
+    public int getLinkBatchSize() {
+        return linkBatchSize;
+    }
+
+    /**
+     * 设置批量加载关联对象时每次 IN 查询的键值个数
+     *
+     * @param linkBatchSize 小于等于0时关闭批量加载, 使用 dao.fetchLinks 逐个对象查询
+     */
+    public void setLinkBatchSize(int linkBatchSize) {
+        this.linkBatchSize = linkBatchSize;
+    }
+
+    public boolean isIdentityMap() {
+        return identityMap;
+    }
+
+    /**
+     * 开启一级缓存: 在 Spring 事务或 IdentityMap.run 范围内, fetch(id)/fetch(Condition) 重复查询时返回同一个对象实例。
+     * 经过 Dao 写入某个表时, 由 {@link TableChangeInterceptor} 清空当前范围内该表的对象
+     *
+     * @param identityMap 是否开启
+     */
+    public void setIdentityMap(boolean identityMap) {
+        if (identityMap) {
+            TableChangeInterceptor.install(this.dao());
+        }
+        this.identityMap = identityMap;
+    }
+
+    /**
+     * @return 当前范围的一级缓存, 未开启或不在范围内时为null
+     */
+    private IdentityMap identityMap() {
+        return identityMap ? IdentityMap.current() : null;
+    }
+
+    public ShardingStrategy getShardingStrategy() {
+        return shardingStrategy;
+    }
+
+    /**
+     * 设置分表策略, 用于 onShard/queryShards/countShards/queryPagerShards
+     *
+     * @param shardingStrategy 分表策略
+     */
+    public void setShardingStrategy(ShardingStrategy shardingStrategy) {
+        this.shardingStrategy = shardingStrategy;
+    }
+
+    public int getMaxShardWindow() {
+        return maxShardWindow;
+    }
+
+    /**
+     * 设置跨分片分页允许的最大 offset + pageSize, 每个分片最多读取这么多行
+     *
+     * @param maxShardWindow 行数
+     */
+    public void setMaxShardWindow(int maxShardWindow) {
+        this.maxShardWindow = maxShardWindow;
+    }
+
+    public ExecutorService getShardExecutor() {
+        return shardExecutor;
+    }
+
+    /**
+     * 设置跨分片查询的线程池, 为null时顺序查询各分片。等待超时时间同 pagerTimeout
+     *
+     * @param shardExecutor 线程池
+     */
+    public void setShardExecutor(ExecutorService shardExecutor) {
+        this.shardExecutor = shardExecutor;
+    }
+
+    /**
+     * 执行分页查询和 count, 组装 QueryResult
+     * <p>
+     * 配置了 pagerExecutor 且不在事务中时, 两个查询并发执行, count 使用条件的副本。
+     * 语句按 pagerTimeout 设置 queryTimeout, 任意一个失败或超时都会取消另一个正在执行的语句
+     *
+     * @param page  分页查询
+     * @param cnd   count 条件
+     * @param pager 分页对象
+     * @return 查询结果
+     */
+    protected QueryResult queryPagerResult(Callable<List<T>> page, Condition cnd, Pager pager) {
+        boolean concurrent = pagerExecutor != null && !inTransaction();
+        Condition countCnd = concurrent ? copyCondition(cnd) : cnd;
+        if (!concurrent || countCnd == null && cnd != null) {
+            List<T> list = call(page);
+            pager.setRecordCount(call(this.countTask(cnd)));
+            return new QueryResult(list, pager);
+        }
+        StatementCancelInterceptor.install(this.dao());
+        StatementCancelInterceptor.Scope scope = new StatementCancelInterceptor.Scope(pagerTimeout);
+        CompletionService<Object> cs = new ExecutorCompletionService<Object>(pagerExecutor);
+        Future<Object> pageFuture = cs.submit(scope.wrap(withTableName(page)));
+        Future<Object> countFuture = cs.submit(scope.wrap(withTableName(this.countTask(countCnd))));
+        boolean completed = false;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pagerTimeout);
+            for (int i = 0; i < 2; i++) {
+                Future<Object> done = cs.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    throw new DaoException("paged query timed out after " + pagerTimeout + "ms");
+                }
+                done.get();
+            }
+            pager.setRecordCount((Integer) countFuture.get());
+            QueryResult re = new QueryResult((List<?>) pageFuture.get(), pager);
+            completed = true;
+            return re;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException(e);
+        } catch (ExecutionException e) {
+            throw Lang.wrapThrow(e.getCause());
+        } finally {
+            if (!completed) {
+                scope.cancel();
+                pageFuture.cancel(true);
+                countFuture.cancel(true);
+            }
+        }
+    }
+
+    private Callable<Integer> countTask(final Condition cnd) {
+        final String tableName = this.getEntity().getTableName();
+        return new Callable<Integer>() {
+            public Integer call() {
+                return cachedCount(tableName, cnd, new Callable<Integer>() {
+                    public Integer call() {
+                        return dao().count(getEntityClass(), cnd);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * 复制条件供另一个线程使用, Cnd 中有分页等可变状态, 不能在两个线程之间共享
+     *
+     * @return 副本; 条件为null, 或 Cnd 中有不能序列化的值时返回null
+     */
+    private static Condition copyCondition(Condition cnd) {
+        if (!(cnd instanceof Cnd)) {
+            return cnd;
+        }
+        try {
+            return ((Cnd) cnd).clone();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 开启 count 缓存, 缓存键为 表名 + 表的版本号 + 条件语句(含参数)。
+     * 经过 Dao 执行的写语句会递增所写表的版本号(见 {@link TableChangeInterceptor}), 之前缓存的结果不再命中
+     *
+     * @param maxSize   最大缓存条数
+     * @param ttlMillis 过期时间(毫秒), 小于等于0时关闭缓存
+     */
+    public void setCountCache(int maxSize, long ttlMillis) {
+        if (ttlMillis > 0) {
+            TableChangeInterceptor.install(this.dao());
+        }
+        this.countCache = ttlMillis > 0 ? new TtlCache<String, Integer>(maxSize, ttlMillis) : null;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * 开启查询结果缓存, 用于很少变化的表上重复的 query(Condition)/query(Condition, Pager)/count(Condition)。
+     * 缓存键为 实体 + 表名 + 条件语句(含参数) + 分页, 经过 Dao 执行的写语句会使所写表的缓存失效
+     * (见 {@link TableChangeInterceptor}), 事务中不使用缓存。
+     * 返回的对象在多次查询之间共享, 不要修改
+     *
+     * @param maxRows   最多缓存的总行数
+     * @param ttlMillis 过期时间(毫秒), 小于等于0时关闭缓存
+     * @see QueryCache
+     */
+    public void setQueryCache(int maxRows, long ttlMillis) {
+        if (ttlMillis > 0) {
+            TableChangeInterceptor.install(this.dao());
+        }
+        this.queryCache = ttlMillis > 0 ? new QueryCache(maxRows, ttlMillis) : null;
+    }
+
+    public boolean isApproximateCount() {
+        return approximateCount;
+    }
+
+    /**
+     * 设置无条件 count() 是否读取数据库的表统计信息(近似值)而不是全表扫描。
+     * 支持 MySQL/PostgreSQL/Oracle/SQL Server/H2, 其他数据库或没有统计信息时仍然精确统计
+     *
+     * @param approximateCount 是否使用近似值
+     */
+    public void setApproximateCount(boolean approximateCount) {
+        this.approximateCount = approximateCount;
+    }
+
+    /**
+     * 获取实体二级缓存, 没有显式设置时按实体类上的 {@link FetchCache} 注解创建
+     *
+     * @return 实体缓存, 未开启时为null
+     */
+    public EntityCache<T> getEntityCache() {
+        if (!entityCacheResolved) {
+            synchronized (this) {
+                if (!entityCacheResolved) {
+                    FetchCache fc = this.getEntityClass().getAnnotation(FetchCache.class);
+                    if (entityCache == null && fc != null) {
+                        TableChangeInterceptor.install(this.dao());
+                        entityCache = new LruEntityCache<T>(fc.maxSize(), fc.ttl());
+                    }
+                    entityCacheResolved = true;
+                }
+            }
+        }
+        return entityCache;
+    }
+
+    /**
+     * @return 本次调用可用的实体缓存; 事务中, 或设置了动态表名(onShard/withTableName/TableName.set)时为null,
+     * 缓存的键只有主键, 不区分分表
+     */
+    private EntityCache<T> activeEntityCache() {
+        if (inTransaction() || TableName.get() != null) {
+            return null;
+        }
+        return this.getEntityCache();
+    }
+
+    /**
+     * 设置 fetch(Long)/fetch(String) 使用的实体二级缓存, 优先于 {@link FetchCache} 注解。
+     * 放入和取出时都复制对象(只复制映射字段), 调用方修改返回的对象不影响缓存。
+     * 失效按表进行: 表的版本号变化(见 {@link TableChangeInterceptor})后整个缓存清空, 适合读多写少的表
+     *
+     * @param entityCache 实体缓存, 为null时关闭
+     */
+    public synchronized void setEntityCache(EntityCache<T> entityCache) {
+        if (entityCache != null) {
+            TableChangeInterceptor.install(this.dao());
+        }
+        this.entityCache = entityCache;
+        this.entityCacheResolved = true;
+    }
+
+    /**
+     * 获取单一主键字段
+     *
+     * @return @Id 或 @Name 字段
+     */
+    protected MappingField pkField() {
+        Entity<T> en = this.getEntity();
+        if (en.getPkType() == PkType.ID) {
+            return en.getIdField();
+        }
+        if (en.getPkType() == PkType.NAME) {
+            return en.getNameField();
+        }
+        throw new IllegalStateException("entity has no single primary key: " + this.getEntityClass());
+    }
+
+    /**
+     * 逐个条件执行删除
+     *
+     * @param cnds          条件
+     * @param transPerChunk 是否每个条件单独一个事务
+     * @return 删除的总条数
+     */
+    private int clearChunks(final List<Condition> cnds, boolean transPerChunk) {
+        final int[] re = new int[1];
+        if (transPerChunk) {
+            for (final Condition cnd : cnds) {
+                Trans.exec(new Atom() {
+                    public void run() {
+                        re[0] += dao().clear(getEntityClass(), cnd);
+                    }
+                });
+            }
+        } else {
+            Trans.exec(new Atom() {
+                public void run() {
+                    for (Condition cnd : cnds) {
+                        re[0] += dao().clear(getEntityClass(), cnd);
+                    }
+                }
+            });
+        }
+        return re[0];
+    }
+
+    /**
+     * 按主键查询, 依次读取一级缓存、实体缓存和数据库
+     *
+     * @param id   主键, Long 或 String
+     * @param load 实际执行的查询
+     * @return 对象
+     */
+    private T fetchById(Object id, Callable<T> load) {
+        IdentityMap map = id == null ? null : this.identityMap();
+        T obj = map == null ? null : map.get(this.getEntity(), id);
+        if (obj != null) {
+            return obj;
+        }
+        EntityCache<T> cache = id == null ? null : this.activeEntityCache();
+        obj = cache == null ? call(load) : this.cachedFetch(cache, id, load);
+        if (map != null && obj != null) {
+            obj = this.identify(map, obj);
+        }
+        return obj;
+    }
+
+    /**
+     * 把查询到的对象按主键(@Id 和 @Name)登记到一级缓存
+     *
+     * @return 该行在本范围内已有的对象, 没有时为传入的对象
+     */
+    private T identify(IdentityMap map, T obj) {
+        Entity<T> en = this.getEntity();
+        T re = obj;
+        if (en.getIdField() != null) {
+            Object id = en.getIdField().getValue(obj);
+            if (id instanceof Number) {
+                re = map.putIfAbsent(en, ((Number) id).longValue(), re);
+            }
+        }
+        if (en.getNameField() != null) {
+            Object name = en.getNameField().getValue(obj);
+            if (name != null) {
+                re = map.putIfAbsent(en, name.toString(), re);
+            }
+        }
+        return re;
+    }
+
+    /**
+     * 通过实体缓存读取, 缓存中没有时执行查询并放入缓存
+     *
+     * @param cache 实体缓存
+     * @param key   主键, Long 或 String
+     * @param load  实际执行的查询
+     * @return 对象的副本
+     */
+    private T cachedFetch(EntityCache<T> cache, Object key, Callable<T> load) {
+        String tableName = this.getEntity().getTableName();
+        long version = TableVersions.version(tableName);
+        T obj = null;
+        synchronized (cache) {
+            if (version > entityCacheVersion) {
+                cache.clear();
+                entityCacheVersion = version;
+            }
+            if (version == entityCacheVersion) {
+                obj = cache.get(key);
+            }
+        }
+        if (obj != null) {
+            return this.copyOf(obj);
+        }
+        obj = call(load);
+        if (obj != null) {
+            synchronized (cache) {
+                // 查询期间表被写入过时不放入缓存
+                if (version == entityCacheVersion && version == TableVersions.version(tableName)) {
+                    cache.put(key, this.copyOf(obj));
+                }
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * 复制对象的映射字段, 实体缓存中保存和返回的都是副本
+     */
+    private T copyOf(T obj) {
+        if (obj == null) {
+            return null;
+        }
+        T re = this.mirror().born();
+        for (MappingField mf : this.getEntity().getMappingFields()) {
+            mf.setValue(re, mf.getValue(obj));
+        }
+        return re;
+    }
+
+    /**
+     * 使用查询结果缓存执行查询, 未开启缓存或处于事务中时直接查询
+     *
+     * @param op    查询类型, 区分同一条件的 query 和 count
+     * @param cnd   条件, 可以是null
+     * @param pager 分页, 可以是null
+     * @param query 实际执行的查询
+     * @return 结果
+     */
+    private <V> V cachedQuery(String op, Condition cnd, Pager pager, Callable<V> query) {
+        QueryCache cache = this.queryCache;
+        if (cache == null || inTransaction()) {
+            return call(query);
+        }
+        Entity<T> en = this.getEntity();
+        String tableName = en.getTableName();
+        StringBuilder key = new StringBuilder(op).append('|').append(en.getType().getName()).append('|').append(tableName);
+        if (cnd != null) {
+            key.append('|').append(cnd.toSql(en));
+            if (pager == null && cnd instanceof Cnd) {
+                pager = ((Cnd) cnd).getPager();
+            }
+        }
+        if (pager != null) {
+            key.append("|pager:").append(pager.getPageNumber()).append(',').append(pager.getPageSize());
+        }
+        return cache.get(tableName, key.toString(), query);
+    }
+
+    /**
+     * 带缓存的 count
+     *
+     * @param tableName 表名
+     * @param cnd       条件, 可以是null
+     * @param count     实际执行的 count
+     * @return 条数
+     */
+    protected int cachedCount(String tableName, Condition cnd, Callable<Integer> count) {
+        TtlCache<String, Integer> cache = this.countCache;
+        if (cache == null || inTransaction()) {
+            return call(count);
+        }
+        String key = tableName + "@" + TableVersions.version(tableName);
+        if (cnd != null) {
+            key += "|" + SqlTexts.stripOrderBy(cnd.toSql(this.getEntity()));
+        }
+        Integer n = cache.get(key);
+        if (n == null) {
+            n = call(count);
+            cache.put(key, n);
+        }
+        return n;
+    }
+
+    /**
+     * 自定义sql分页查询
+     *
+     * @param en       目标实体
+     * @param sql      sql语句
+     * @param countSql count 语句, 为null时由 sql 改写生成
+     * @param params   参数, 为null时按普通sql执行
+     * @param pager    分页, 可以是null
+     * @return 查询结果
+     */
+    protected QueryResult queryPagerBySql(Entity<?> en, String sql, String countSql, Map<String, Object> params, Pager pager) {
+        return this.queryPagerBySql(en, sql, countSql, params, pager, true);
+    }
+
+    /**
+     * 自定义sql分页查询
+     *
+     * @param count 是否查询总行数, 为false时多取一行判断是否有下一页
+     */
+    protected QueryResult queryPagerBySql(Entity<?> en, String sql, String countSql, Map<String, Object> params, Pager pager, boolean count) {
+        QueryResult qr = new QueryResult();
+        if (pager == null) {
+            qr.setList(this.queryEntities(en, sql, params, null));
+            return qr;
+        }
+        if (count) {
+            int n = countSql == null ? this.countBySql(sql, params) : this.fetchCount(countSql, params);
+            qr.setList(this.queryEntities(en, sql, params, pager));
+            pager.setRecordCount(n);
+        } else {
+            List<?> list = this.queryEntities(en, sql, params, lookAhead(pager));
+            boolean more = list.size() > pager.getPageSize();
+            if (more) {
+                list.remove(list.size() - 1);
+            }
+            qr.setList(list);
+            pager.setRecordCount(pager.getOffset() + list.size() + (more ? 1 : 0));
+        }
+        qr.setPager(pager);
+        return qr;
+    }
+
+    /**
+     * 查询前 n 条的分页对象
+     */
+    private static Pager firstRows(final int n) {
+        return new Pager(1, n) {
+            public int getPageSize() {
+                return n;
+            }
+
+            public int getOffset() {
+                return 0;
+            }
+        };
+    }
+
+    private ShardingStrategy shardingStrategy() {
+        if (shardingStrategy == null) {
+            throw new IllegalStateException("no sharding strategy for " + this.getEntityClass());
+        }
+        return shardingStrategy;
+    }
+
+    /**
+     * 在条件涉及的每个分片上执行 task, 结果按分片顺序返回
+     */
+    @SuppressWarnings("unchecked")
+    private <V> List<V> fanOut(Condition cnd, Callable<V> task) {
+        Collection<?> shards = this.shardingStrategy().shards(this.getEntity(), cnd);
+        List<V> re = new ArrayList<V>(shards.size());
+        if (shardExecutor == null || inTransaction() || shards.size() < 2) {
+            for (Object shard : shards) {
+                Object old = TableName.set(shard);
+                try {
+                    re.add(call(task));
+                } finally {
+                    TableName.set(old);
+                }
+            }
+            return re;
+        }
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(shards.size());
+        try {
+            for (Object shard : shards) {
+                futures.add(shardExecutor.submit(onTable(shard, task)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pagerTimeout);
+            for (Future<Object> future : futures) {
+                re.add((V) future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            }
+            return re;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException(e);
+        } catch (ExecutionException e) {
+            throw Lang.wrapThrow(e.getCause());
+        } catch (TimeoutException e) {
+            throw new DaoException("sharded query timed out after " + pagerTimeout + "ms");
+        } finally {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 按条件中的 ORDER BY 在内存中排序, 没有排序或条件不是 Cnd 时返回null。
+     * OrderByItem 的字段名和方向没有 getter, 通过 Mirror 读取
+     */
+    private Comparator<T> orderOf(Condition cnd) {
+        OrderBy orderBy = cnd instanceof Cnd ? ((Cnd) cnd).getOrderBy() : null;
+        if (!(orderBy instanceof OrderBySet) || ((OrderBySet) orderBy).getItems().isEmpty()) {
+            return null;
+        }
+        Entity<T> en = this.getEntity();
+        final List<MappingField> fields = new ArrayList<MappingField>();
+        final List<Boolean> desc = new ArrayList<Boolean>();
+        for (OrderByItem item : ((OrderBySet) orderBy).getItems()) {
+            String name = (String) ORDER_BY_ITEM.getValue(item, "name");
+            MappingField mf = en.getField(name);
+            if (mf == null) {
+                mf = en.getColumn(name);
+            }
+            if (mf == null) {
+                throw new IllegalArgumentException("sharded query can only order by entity fields: " + name);
+            }
+            fields.add(mf);
+            desc.add("DESC".equalsIgnoreCase((String) ORDER_BY_ITEM.getValue(item, "by")));
+        }
+        return new Comparator<T>() {
+            public int compare(T a, T b) {
+                for (int i = 0; i < fields.size(); i++) {
+                    int c = compareValues(fields.get(i).getValue(a), fields.get(i).getValue(b));
+                    if (c != 0) {
+                        return desc.get(i) ? -c : c;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareValues(Object a, Object b) {
+        if (a == b) {
+            return 0;
+        }
+        if (a == null) {
+            return -1;
+        }
+        if (b == null) {
+            return 1;
+        }
+        if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof Comparable && a.getClass() == b.getClass()) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    /**
+     * 与 pager 偏移量相同, 但多取一行的分页
+     */
+    private static Pager lookAhead(final Pager pager) {
+        return new Pager(pager.getPageNumber(), pager.getPageSize()) {
+            public int getPageSize() {
+                return pager.getPageSize() + 1;
+            }
+
+            public int getOffset() {
+                return pager.getOffset();
+            }
+        };
+    }
+
+    /**
+     * 统计自定义sql的结果条数, count 语句由 {@link SqlTexts#toCountSql(String)} 改写生成
+     *
+     * @param sql    sql语句
+     * @param params 参数, 为null时按普通sql执行
+     * @return 条数
+     */
+    protected int countBySql(String sql, Map<String, Object> params) {
+        return this.fetchCount(SqlTexts.toCountSql(sql), params);
+    }
+
+    /**
+     * 执行 count 语句。语句涉及的表未知, 缓存的结果在任何表被写入后失效
+     *
+     * @param countStr count 语句
+     * @param params   参数, 为null时按普通sql执行
+     * @return 条数
+     */
+    protected int fetchCount(String countStr, Map<String, Object> params) {
+        TtlCache<String, Integer> cache = this.countCache;
+        if (cache == null || inTransaction()) {
+            return this.executeCount(countStr, params);
+        }
+        String key = "*@" + TableVersions.global() + "|" + countStr;
+        if (params != null) {
+            key += "|" + Json.toJson(new TreeMap<String, Object>(params), JsonFormat.compact());
+        }
+        Integer n = cache.get(key);
+        if (n == null) {
+            n = this.executeCount(countStr, params);
+            cache.put(key, n);
+        }
+        return n;
+    }
+
+    private int executeCount(String countStr, Map<String, Object> params) {
+        Sql query = params == null ? Sqls.create(countStr) : TemplateSql.create(countStr, params);
+        query.setCallback(Sqls.callback.integer());
+        this.dao().execute(query);
+        return query.getInt();
+    }
+
+    /**
+     * 从数据库的统计信息中读取表的近似行数
+     *
+     * @param tableName 表名
+     * @return 近似行数, 不支持或没有统计信息时为null
+     */
+    protected Long approximateCount(String tableName) {
+        DatabaseMeta meta = this.dao().meta();
+        String sql;
+        if (meta.isMySql()) {
+            sql = "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = @table";
+        } else if (meta.isPostgresql()) {
+            sql = "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(@table)";
+        } else if (meta.isOracle()) {
+            sql = "SELECT NUM_ROWS FROM USER_TABLES WHERE TABLE_NAME = UPPER(@table)";
+        } else if (meta.isSqlServer()) {
+            sql = "SELECT SUM(rows) FROM sys.partitions WHERE object_id = OBJECT_ID(@table) AND index_id IN (0, 1)";
+        } else if (meta.isH2()) {
+            sql = "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = UPPER(@table)";
+        } else {
+            return null;
+        }
+        Sql query = Sqls.fetchLong(sql);
+        query.params().set("table", tableName);
+        this.dao().execute(query);
+        Object n = query.getResult();
+        if (n == null || ((Number) n).longValue() < 0) {
+            return null;
+        }
+        return ((Number) n).longValue();
+    }
+
+    /**
+     * @return 当前线程是否处于 Spring 或 Nutz 事务中
+     */
+    protected static boolean inTransaction() {
+        return TransactionSynchronizationManager.isActualTransactionActive() || Trans.get() != null;
+    }
+
+    private static <V> V call(Callable<V> callable) {
+        try {
+            return callable.call();
+        } catch (Exception e) {
+            throw Lang.wrapThrow(e);
+        }
+    }
+
+    /**
+     * 把当前线程的动态表名和读写分离状态带到执行线程
+     */
+    private static Callable<Object> withTableName(Callable<?> callable) {
+        return onTable(TableName.get(), callable);
+    }
+
+    /**
+     * 在指定动态表名下执行, 同时带上当前线程的读写分离状态
+     */
+    private static Callable<Object> onTable(final Object tableName, final Callable<?> callable) {
+        final Object route = ReadWriteRouter.snapshot();
+        return new Callable<Object>() {
+            public Object call() throws Exception {
+                Object old = TableName.set(tableName);
+                Object oldRoute = ReadWriteRouter.restore(route);
+                try {
+                    return callable.call();
+                } finally {
+                    ReadWriteRouter.restore(oldRoute);
+                    TableName.set(old);
+                }
+            }
+        };
+    }
+
+    /**
+     * 获取按字段过滤的 Dao 视图。视图(及其中编译好的 FieldMatcher)按参数缓存, 不再每次调用都重新创建
+     *
+     * @param fieldName 主表过滤字段 支持通配符 ^(a|b)$, 为null时不过滤
+     * @param linked    副表过滤, 按 Class, 过滤字段 成对传入
+     * @return Dao 视图
+     */
+    protected Dao projectionDao(String fieldName, Object... linked) {
+        Dao dao = this.dao();
+        if (fieldName == null && linked.length == 0) {
+            return dao;
+        }
+        StringBuilder key = new StringBuilder(fieldName == null ? "" : fieldName);
+        for (int i = 0; i < linked.length; i += 2) {
+            key.append('|').append(((Class<?>) linked[i]).getName()).append(':').append(linked[i + 1]);
+        }
+        synchronized (projectionCache) {
+            if (projectionOwner != dao) {
+                projectionCache.clear();
+                projectionOwner = dao;
+            }
+            Dao re = projectionCache.get(key.toString());
+            if (re == null) {
+                FieldFilter ff = FieldFilter.create(this.getEntityClass(), fieldName);
+                for (int i = 0; i < linked.length; i += 2) {
+                    ff.set((Class<?>) linked[i], (String) linked[i + 1]);
+                }
+                re = Daos.ext(dao, ff);
+                projectionCache.put(key.toString(), re);
+            }
+            return re;
+        }
+    }
+
+    /**
+     * 获取 Dao 使用的数据源
+     *
+     * @return 数据源
+     */
+    protected DataSource dataSource() {
+        if (!(this.dao() instanceof DaoSupport)) {
+            throw new IllegalStateException("dao must be a DaoSupport to open a cursor: " + this.dao().getClass());
+        }
+        return ((DaoSupport) this.dao()).getDataSource();
+    }
+
+    /**
+     * 执行自定义sql, 把结果集直接映射为对象(不经过 Record)
+     *
+     * @param en     目标实体, 可以是没有 @Table 的 VO
+     * @param sql    sql语句
+     * @param params 参数, 为null时按普通sql执行
+     * @param pager  分页, 可以是null
+     * @return 对象列表
+     */
+    protected <E> List<E> queryEntities(final Entity<E> en, String sql, Map<String, Object> params, Pager pager) {
+        Sql query = params == null ? Sqls.create(sql) : TemplateSql.create(sql, params);
+        query.setPager(pager);
+        query.setCallback(new SqlCallback() {
+            public Object invoke(Connection conn, final ResultSet rs, Sql sql) throws SQLException {
+                final RowMapper<E> mapper = RowMapper.of(en, rs.getMetaData());
+                ResultSetLooping looping = new ResultSetLooping() {
+                    protected boolean createObject(int index, ResultSet rs, SqlContext context, int rowCount) {
+                        try {
+                            list.add(mapper.map(rs));
+                        } catch (SQLException e) {
+                            throw Lang.wrapThrow(e);
+                        }
+                        return true;
+                    }
+                };
+                looping.doLoop(rs, sql.getContext());
+                return looping.getList();
+            }
+        });
+        this.dao().execute(query);
+        return query.getList(en.getType());
+    }
+
+    /**
+     * 按调用方的方法级泛型返回 {@link #queryEntities(Entity, String, Map, Pager)} 的结果
+     */
+    @SuppressWarnings("unchecked") // getByList 等的返回类型 <T> 由调用方决定, 元素实际是 en 对应的类型, 编译期无法校验
+    private <E> List<E> queryEntitiesAs(Entity<?> en, String sql, Map<String, Object> params, Pager pager) {
+        return (List<E>) this.queryEntities(en, sql, params, pager);
+    }
+
+    /**
+     * 查询单列, 结果集交给 callback 逐行读取
+     *
+     * @return callback 的返回值(条数)
+     */
+    private int eachColumn(String fieldName, Condition cnd, SqlCallback callback) {
+        Entity<T> en = this.getEntity();
+        MappingField mf = en.getField(fieldName);
+        if (mf == null) {
+            throw new IllegalArgumentException("no such field '" + fieldName + "' in " + en.getType().getName());
+        }
+        Sql sql = Sqls.create("SELECT " + mf.getColumnNameInSql() + " FROM " + en.getViewName() + " $condition");
+        sql.setEntity(en);
+        sql.setCondition(cnd);
+        if (fetchSize != 0) {
+            sql.getContext().setFetchSize(fetchSize);
+        }
+        sql.setCallback(callback);
+        this.dao().execute(sql);
+        return (Integer) sql.getResult();
+    }
+
+    /**
+     * 按实体字段导出, 只查询需要的列
+     */
+    private int export(ResultSetExporter.Format format, Condition cnd, OutputStream out, String[] fieldNames) {
+        Entity<T> en = this.getEntity();
+        List<MappingField> fields = new ArrayList<MappingField>();
+        if (fieldNames == null || fieldNames.length == 0) {
+            fields.addAll(en.getMappingFields());
+        } else {
+            for (String name : fieldNames) {
+                MappingField mf = en.getField(name);
+                if (mf == null) {
+                    throw new IllegalArgumentException("no such field '" + name + "' in " + en.getType().getName());
+                }
+                fields.add(mf);
+            }
+        }
+        StringBuilder columns = new StringBuilder();
+        String[] names = new String[fields.size()];
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                columns.append(", ");
+            }
+            columns.append(fields.get(i).getColumnNameInSql());
+            names[i] = fields.get(i).getName();
+        }
+        Sql sql = Sqls.create("SELECT " + columns + " FROM " + en.getViewName() + " $condition");
+        sql.setEntity(en);
+        sql.setCondition(cnd);
+        return this.export(format, sql, names, false, out);
+    }
+
+    private int export(ResultSetExporter.Format format, String sql, Map<String, Object> params, OutputStream out, String[] columns) {
+        Sql query = params == null ? Sqls.create(sql) : TemplateSql.create(sql, params);
+        return this.export(format, query, columns, true, out);
+    }
+
+    /**
+     * 执行查询, 由 ResultSetExporter 逐行写出
+     *
+     * @param names   输出的列名
+     * @param byLabel 是否按结果集列名查找列, 为false时 names 依次对应查询的各列
+     */
+    private int export(ResultSetExporter.Format format, Sql sql, final String[] names, final boolean byLabel,
+                       final OutputStream out) {
+        final ResultSetExporter exporter = new ResultSetExporter(format, ResultSetExporter.DEFAULT_FLUSH_ROWS);
+        if (fetchSize != 0) {
+            sql.getContext().setFetchSize(fetchSize);
+        }
+        sql.setCallback(new SqlCallback() {
+            public Object invoke(Connection conn, ResultSet rs, Sql sql) throws SQLException {
+                int[] indexes;
+                String[] labels = names;
+                if (byLabel) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    if (labels == null || labels.length == 0) {
+                        labels = new String[meta.getColumnCount()];
+                        for (int i = 0; i < labels.length; i++) {
+                            labels[i] = meta.getColumnLabel(i + 1);
+                        }
+                    }
+                    indexes = new int[labels.length];
+                    for (int i = 0; i < labels.length; i++) {
+                        indexes[i] = indexOfColumn(meta, labels[i]);
+                    }
+                } else {
+                    indexes = new int[labels.length];
+                    for (int i = 0; i < indexes.length; i++) {
+                        indexes[i] = i + 1;
+                    }
+                }
+                try {
+                    return exporter.export(rs, indexes, labels, out);
+                } catch (IOException e) {
+                    throw Lang.wrapThrow(e);
+                }
+            }
+        });
+        this.dao().execute(sql);
+        return (Integer) sql.getResult();
+    }
+
+    private static int indexOfColumn(ResultSetMetaData meta, String label) throws SQLException {
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            if (meta.getColumnLabel(i).equalsIgnoreCase(label)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("no such column '" + label + "' in result set");
+    }
+
+    /**
+     * 生成分组聚合的 Sql
+     *
+     * @param names 输出参数, 按查询顺序填入结果列名
+     */
+    private Sql aggregateSql(Condition cnd, String[] groupBy, Agg[] aggs, List<String> names) {
+        if (aggs == null || aggs.length == 0) {
+            throw new IllegalArgumentException("at least one aggregate is required");
+        }
+        Entity<T> en = this.getEntity();
+        Cnd where = this.whereOf(en, cnd);
+        StringBuilder columns = new StringBuilder();
+        if (groupBy != null && groupBy.length > 0) {
+            for (String name : groupBy) {
+                MappingField mf = en.getField(name);
+                if (mf == null) {
+                    throw new IllegalArgumentException("no such field '" + name + "' in " + en.getType().getName());
+                }
+                columns.append(mf.getColumnNameInSql()).append(" AS ").append(this.quoteAlias(name)).append(", ");
+                names.add(name);
+                where.asc(name);
+            }
+            where.groupBy(groupBy);
+        }
+        for (int i = 0; i < aggs.length; i++) {
+            if (i > 0) {
+                columns.append(", ");
+            }
+            columns.append(aggs[i].toSql(en)).append(" AS ").append(this.quoteAlias(aggs[i].getAlias()));
+            names.add(aggs[i].getAlias());
+        }
+        Sql sql = Sqls.create("SELECT " + columns + " FROM " + en.getViewName() + " $condition");
+        sql.setEntity(en);
+        sql.setCondition(where);
+        return sql;
+    }
+
+    /**
+     * 按方言引用别名, MySQL 用反引号, 其他数据库用双引号, 别名不会与关键字冲突且保留大小写
+     */
+    private String quoteAlias(String alias) {
+        return this.dao().meta().isMySql() ? "`" + alias + "`" : "\"" + alias + "\"";
+    }
+
+    /**
+     * 生成查询实体全部字段的 Sql
+     *
+     * @param en  实体
+     * @param cnd 条件, 可以是null
+     * @return Sql
+     */
+    protected Sql createQuerySql(Entity<?> en, Condition cnd) {
+        Sql sql = Sqls.create("SELECT * FROM " + en.getViewName() + " $condition");
+        sql.setEntity(en);
+        sql.setCondition(cnd);
+        return sql;
+    }
+
+    /**
+     * 只取条件中的 WHERE 部分, 生成一个可以继续追加条件和排序的 Cnd
+     *
+     * @param en  实体
+     * @param cnd 条件, 可以是null
+     * @return 新的 Cnd
+     */
+    protected Cnd whereOf(Entity<?> en, Condition cnd) {
+        if (cnd == null) {
+            return Cnd.NEW();
+        }
+        if (cnd instanceof Cnd) {
+            SqlExpressionGroup where = ((Cnd) cnd).where();
+            return where.isEmpty() ? Cnd.NEW() : Cnd.where(where.clone());
+        }
+        String sql = SqlTexts.stripOrderBy(Strings.trim(cnd.toSql(en)));
+        if (SqlTexts.indexOfTopLevel(sql, "where", false) == 0) {
+            sql = sql.substring(5);
+        }
+        return Strings.isBlank(sql) ? Cnd.NEW() : Cnd.where(new Static("(" + sql + ")"));
+    }
+
+    private List<MappingField> keysetFields(Entity<?> en, String[] keyFields) {
+        List<MappingField> keys = new ArrayList<MappingField>();
+        if (keyFields == null || keyFields.length == 0) {
+            keys.addAll(en.getPks());
+        } else {
+            for (String name : keyFields) {
+                MappingField mf = en.getField(name);
+                if (mf == null) {
+                    throw new IllegalArgumentException("no such field '" + name + "' in " + en.getType().getName());
+                }
+                keys.add(mf);
+            }
+        }
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("no sort keys for keyset paging, without pks: " + en.getType().getName());
+        }
+        return keys;
+    }
+
+    /**
+     * 生成 (k1 > v1) OR (k1 = v1 AND k2 > v2) ... 形式的定位条件, 多字段时额外加上 k1 >= v1 便于走索引范围扫描
+     */
+    private static SqlExpression keysetExpression(List<MappingField> keys, Object[] last, boolean desc) {
+        String op = desc ? "<" : ">";
+        SqlExpressionGroup seek = new SqlExpressionGroup();
+        for (int i = 0; i < keys.size(); i++) {
+            SqlExpressionGroup branch = new SqlExpressionGroup();
+            for (int j = 0; j < i; j++) {
+                branch.and(keys.get(j).getName(), "=", last[j]);
+            }
+            branch.and(keys.get(i).getName(), op, last[i]);
+            seek.or(branch);
+        }
+        if (keys.size() == 1) {
+            return seek;
+        }
+        return Cnd.exps(keys.get(0).getName(), op + "=", last[0]).and(seek);
+    }
+
+    /**
+     * 按每批条数切分列表
+     *
+     * @param list      列表
+     * @param batchSize 每批条数, 小于等于0时使用默认值
+     * @return 子列表集合(共享原列表)
+     */
+    protected static <E> List<List<E>> partition(List<E> list, int batchSize) {
+        int size = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        List<List<E>> chunks = new ArrayList<List<E>>((list.size() + size - 1) / size);
+        for (int from = 0; from < list.size(); from += size) {
+            chunks.add(list.subList(from, Math.min(from + size, list.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * 生成数据库原生的 upsert 语句, 参数顺序与 fields 一致。子类可以覆盖以支持其他数据库
+     *
+     * @param en      实体
+     * @param fields  插入的字段(含主键)
+     * @param updates 记录已存在时更新的字段
+     * @return 不支持的数据库返回null, 此时先查询已存在的主键再分别插入和更新
+     */
+    protected String upsertSql(Entity<T> en, List<MappingField> fields, List<MappingField> updates) {
+        DatabaseMeta meta = this.dao().meta();
+        List<MappingField> pks = en.getPks();
+        StringBuilder columns = new StringBuilder();
+        StringBuilder holders = new StringBuilder();
+        for (MappingField mf : fields) {
+            if (columns.length() > 0) {
+                columns.append(',');
+                holders.append(',');
+            }
+            columns.append(mf.getColumnNameInSql());
+            holders.append('?');
+        }
+        String table = en.getTableName();
+        StringBuilder sb = new StringBuilder();
+        if (meta.isMySql()) {
+            sb.append("INSERT INTO ").append(table).append('(').append(columns).append(") VALUES(").append(holders).append(')');
+            sb.append(" ON DUPLICATE KEY UPDATE ");
+            if (updates.isEmpty()) {
+                String pk = pks.get(0).getColumnNameInSql();
+                sb.append(pk).append('=').append(pk);
+            }
+            for (int i = 0; i < updates.size(); i++) {
+                String c = updates.get(i).getColumnNameInSql();
+                sb.append(i > 0 ? "," : "").append(c).append("=VALUES(").append(c).append(')');
+            }
+            return sb.toString();
+        }
+        if (meta.isPostgresql()) {
+            sb.append("INSERT INTO ").append(table).append('(').append(columns).append(") VALUES(").append(holders).append(')');
+            sb.append(" ON CONFLICT (");
+            for (int i = 0; i < pks.size(); i++) {
+                sb.append(i > 0 ? "," : "").append(pks.get(i).getColumnNameInSql());
+            }
+            sb.append(updates.isEmpty() ? ") DO NOTHING" : ") DO UPDATE SET ");
+            for (int i = 0; i < updates.size(); i++) {
+                String c = updates.get(i).getColumnNameInSql();
+                sb.append(i > 0 ? "," : "").append(c).append("=EXCLUDED.").append(c);
+            }
+            return sb.toString();
+        }
+        if (meta.isH2() || meta.isOracle()) {
+            sb.append("MERGE INTO ").append(table).append(" T USING (SELECT ");
+            for (int i = 0; i < fields.size(); i++) {
+                MappingField mf = fields.get(i);
+                sb.append(i > 0 ? "," : "");
+                if (meta.isH2()) {
+                    // H2 无法推断派生表中参数的类型
+                    sb.append("CAST(? AS ").append(this.dao().getJdbcExpert().evalFieldType(mf)).append(") ");
+                } else {
+                    sb.append("? ");
+                }
+                sb.append(mf.getColumnNameInSql());
+            }
+            sb.append(" FROM DUAL) S ON (");
+            for (int i = 0; i < pks.size(); i++) {
+                String c = pks.get(i).getColumnNameInSql();
+                sb.append(i > 0 ? " AND " : "").append("T.").append(c).append("=S.").append(c);
+            }
+            sb.append(')');
+            if (!updates.isEmpty()) {
+                sb.append(" WHEN MATCHED THEN UPDATE SET ");
+                for (int i = 0; i < updates.size(); i++) {
+                    String c = updates.get(i).getColumnNameInSql();
+                    sb.append(i > 0 ? "," : "").append("T.").append(c).append("=S.").append(c);
+                }
+            }
+            sb.append(" WHEN NOT MATCHED THEN INSERT(").append(columns).append(") VALUES(");
+            for (int i = 0; i < fields.size(); i++) {
+                sb.append(i > 0 ? "," : "").append("S.").append(fields.get(i).getColumnNameInSql());
+            }
+            return sb.append(')').toString();
+        }
+        return null;
+    }
+
+    /**
+     * 不支持原生 upsert 的数据库: 先查出已存在的主键, 再分别批量插入和批量更新。需在事务中调用
+     */
+    private int upsertChunk(Entity<T> en, List<MappingField> fields, List<MappingField> updates, List<T> chunk) {
+        List<MappingField> pks = en.getPks();
+        Cnd cnd = Cnd.NEW();
+        StringBuilder regex = new StringBuilder("^(");
+        for (int i = 0; i < pks.size(); i++) {
+            regex.append(i > 0 ? "|" : "").append(pks.get(i).getName());
+        }
+        for (T obj : chunk) {
+            SqlExpressionGroup group = null;
+            for (MappingField mf : pks) {
+                group = group == null ? Cnd.exps(mf.getName(), "=", mf.getValue(obj)) : group.and(mf.getName(), "=", mf.getValue(obj));
+            }
+            cnd.or(group);
+        }
+        Set<List<Object>> exists = new HashSet<List<Object>>();
+        for (T obj : this.projectionDao(regex.append(")$").toString()).query(this.getEntityClass(), cnd)) {
+            exists.add(pkValues(pks, obj));
+        }
+        List<T> inserts = new ArrayList<T>();
+        List<T> updateList = new ArrayList<T>();
+        for (T obj : chunk) {
+            (exists.contains(pkValues(pks, obj)) ? updateList : inserts).add(obj);
+        }
+        int re = 0;
+        if (!inserts.isEmpty()) {
+            StringBuilder columns = new StringBuilder();
+            StringBuilder holders = new StringBuilder();
+            for (MappingField mf : fields) {
+                columns.append(columns.length() > 0 ? "," : "").append(mf.getColumnNameInSql());
+                holders.append(holders.length() > 0 ? ",?" : "?");
+            }
+            re += sum(this.executeBatch("INSERT INTO " + en.getTableName() + "(" + columns + ") VALUES(" + holders + ")", fields, inserts));
+        }
+        if (!updateList.isEmpty() && !updates.isEmpty()) {
+            StringBuilder sql = new StringBuilder("UPDATE ").append(en.getTableName()).append(" SET ");
+            for (int i = 0; i < updates.size(); i++) {
+                sql.append(i > 0 ? "," : "").append(updates.get(i).getColumnNameInSql()).append("=?");
+            }
+            sql.append(" WHERE ");
+            for (int i = 0; i < pks.size(); i++) {
+                sql.append(i > 0 ? " AND " : "").append(pks.get(i).getColumnNameInSql()).append("=?");
+            }
+            List<MappingField> params = new ArrayList<MappingField>(updates);
+            params.addAll(pks);
+            re += sum(this.executeBatch(sql.toString(), params, updateList));
+        }
+        return re;
+    }
+
+    private static List<Object> pkValues(List<MappingField> pks, Object obj) {
+        List<Object> re = new ArrayList<Object>(pks.size());
+        for (MappingField mf : pks) {
+            re.add(LinkLoader.keyOf(mf.getValue(obj)));
+        }
+        return re;
+    }
+
+    /**
+     * 以 JDBC batch 执行同一条语句, 每个对象按 fields 的顺序用字段的 ValueAdaptor 绑定参数。
+     * 语句作为 RUN 类型的 Sql 交给 Dao 执行, 因此经过 Dao 的拦截器链并使用当前事务的连接
+     *
+     * @return 每个对象影响的条数, 驱动返回 SUCCESS_NO_INFO 时计为1
+     */
+    private int[] executeBatch(final String sql, final List<MappingField> fields, final List<T> chunk) {
+        NutSql run = new NutSql(sql);
+        run.setSqlType(SqlType.RUN);
+        run.setCallback(new SqlCallback() {
+            public Object invoke(Connection conn, ResultSet rs, Sql s) throws SQLException {
+                PreparedStatement ps = conn.prepareStatement(sql);
+                try {
+                    for (T obj : chunk) {
+                        for (int i = 0; i < fields.size(); i++) {
+                            MappingField mf = fields.get(i);
+                            mf.getAdaptor().set(ps, mf.getValue(obj), i + 1);
+                        }
+                        ps.addBatch();
+                    }
+                    int[] counts = ps.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                            counts[i] = 1;
+                        }
+                    }
+                    return counts;
+                } finally {
+                    Daos.safeClose(ps);
+                }
+            }
+        });
+        this.dao().execute(run);
+        return (int[]) run.getResult();
+    }
+
+    /**
+     * 按主键批量更新, 要更新的字段相同的对象共用一条语句, 按 batchSize 作为 JDBC batch 发送, 所有批次在同一个事务中执行。
+     * 有版本号字段(@Column(version = true))时按版本号更新(同 updateWithVersion): 版本号不一致的对象计为0, 更新成功的对象版本号加1
+     *
+     * @param ignoreNull 是否忽略值为null的字段
+     * @return 每个对象影响的条数, 与 list 一一对应
+     */
+    private int[] updateRows(final List<T> list, final int batchSize, boolean ignoreNull) {
+        Entity<T> en = this.getEntity();
+        if (en.getPkType() == PkType.UNKNOWN) {
+            throw new IllegalArgumentException("no support , without pks");
+        }
+        final MappingField version = en.getVersionField();
+        List<MappingField> fields = new ArrayList<MappingField>();
+        for (MappingField mf : en.getMappingFields()) {
+            if (!mf.isPk() && mf.isUpdate() && !mf.isReadonly() && !mf.isAutoIncreasement() && mf != version) {
+                fields.add(mf);
+            }
+        }
+        // 要更新的字段 -> 对象在 list 中的位置
+        final Map<List<MappingField>, List<Integer>> groups = new LinkedHashMap<List<MappingField>, List<Integer>>();
+        for (int i = 0; i < list.size(); i++) {
+            List<MappingField> updates = fields;
+            if (ignoreNull) {
+                updates = new ArrayList<MappingField>();
+                for (MappingField mf : fields) {
+                    if (mf.getValue(list.get(i)) != null) {
+                        updates.add(mf);
+                    }
+                }
+            }
+            List<Integer> group = groups.get(updates);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(updates, group);
+            }
+            group.add(i);
+        }
+        final int[] counts = new int[list.size()];
+        final List<MappingField> pks = en.getPks();
+        final String tableName = en.getTableName();
+        Trans.exec(new Atom() {
+            public void run() {
+                for (Map.Entry<List<MappingField>, List<Integer>> e : groups.entrySet()) {
+                    List<MappingField> updates = e.getKey();
+                    if (updates.isEmpty()) {
+                        continue;
+                    }
+                    StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+                    for (int i = 0; i < updates.size(); i++) {
+                        sql.append(i > 0 ? "," : "").append(updates.get(i).getColumnNameInSql()).append("=?");
+                    }
+                    if (version != null) {
+                        String column = version.getColumnNameInSql();
+                        sql.append(",").append(column).append("=").append(column).append("+1");
+                    }
+                    sql.append(" WHERE ");
+                    for (int i = 0; i < pks.size(); i++) {
+                        sql.append(i > 0 ? " AND " : "").append(pks.get(i).getColumnNameInSql()).append("=?");
+                    }
+                    List<MappingField> params = new ArrayList<MappingField>(updates);
+                    params.addAll(pks);
+                    if (version != null) {
+                        sql.append(" AND ").append(version.getColumnNameInSql()).append("=?");
+                        params.add(version);
+                    }
+                    for (List<Integer> indexes : partition(e.getValue(), batchSize)) {
+                        List<T> chunk = new ArrayList<T>(indexes.size());
+                        for (int i : indexes) {
+                            chunk.add(list.get(i));
+                        }
+                        int[] re = executeBatch(sql.toString(), params, chunk);
+                        for (int i = 0; i < re.length; i++) {
+                            counts[indexes.get(i)] = re[i];
+                        }
+                    }
+                }
+            }
+        });
+        if (version != null) {
+            for (int i = 0; i < counts.length; i++) {
+                Object v = version.getValue(list.get(i));
+                if (counts[i] > 0 && v instanceof Number) {
+                    version.setValue(list.get(i), Castors.me().castTo(((Number) v).longValue() + 1, version.getTypeClass()));
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static int sum(int[] counts) {
+        int re = 0;
+        for (int n : counts) {
+            re += n;
+        }
+        return re;
+    }
+
+    /**
+     * 插入一批数据。没有 @Prev/@Next 时 Nutz 以一次 JDBC batch 插入并回填自增主键, 否则逐个对象插入
+     *
+     * @param chunk 一批数据
+     * @return 插入条数
+     */
+    private int insertChunk(List<T> chunk) {
+        this.dao().insert(chunk);
+        return chunk.size();
     }
 }
@@ -0,0 +1,29 @@
+package org.kuochsiang.nutz.common;
+
+/**
+ * 按主键缓存实体的二级缓存, 供 {@link BaseServiceImpl#fetch(Long)} 和 {@link BaseServiceImpl#fetch(String)} 使用
+ * <p>
+ * 默认实现为 {@link LruEntityCache}, 需要其他淘汰策略(例如 W-TinyLFU)时可以自行实现后通过
+ * {@link BaseServiceImpl#setEntityCache(EntityCache)} 设置。
+ * 主键统一为 Long(数字主键) 或 String(字符主键)
+ *
+ * @param <T> 实体类型
+ */
+public interface EntityCache<T> {
+
+    T get(Object id);
+
+    void put(Object id, T obj);
+
+    void remove(Object id);
+
+    void clear();
+
+    long size();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+}
@@ -0,0 +1,28 @@
+package org.kuochsiang.nutz.common;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 声明在实体类上, 为该实体的 fetch(Long)/fetch(String) 开启二级缓存。表被写入后缓存整体失效, 适合读多写少的表
+ *
+ * @see EntityCache
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Documented
+public @interface FetchCache {
+
+    /**
+     * @return 最大缓存对象数
+     */
+    int maxSize() default 10000;
+
+    /**
+     * @return 过期时间(毫秒), 小于等于0表示不过期
+     */
+    long ttl() default 300000;
+}
@@ -0,0 +1,252 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.Chain;
+import org.nutz.dao.Condition;
+import org.nutz.dao.FieldFilter;
+import org.nutz.dao.FieldMatcher;
+import org.nutz.dao.QueryResult;
+import org.nutz.dao.pager.Pager;
+import org.nutz.lang.Each;
+
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link IBaseService} 的异步版本, 方法与同步接口一一对应, 立即返回 CompletableFuture
+ * <p>
+ * 不包含 stream(Condition): 流在消费线程上持有连接, 异步返回没有意义, 需要时通过 {@link #submit(Function)} 在任务内消费
+ *
+ * @param <T> 实体类型
+ * @see AsyncBaseServiceImpl
+ */
+public interface IAsyncBaseService<T> {
+
+    IBaseService<T> service();
+
+    /**
+     * 异步执行任意同步方法
+     *
+     * @param action 对同步 service 的调用
+     * @param <R>    返回类型
+     * @return 结果
+     */
+    <R> CompletableFuture<R> submit(Function<IBaseService<T>, R> action);
+
+    CompletableFuture<Integer> count(Condition cnd);
+
+    CompletableFuture<Integer> count();
+
+    CompletableFuture<Integer> count(String tableName, Condition cnd);
+
+    CompletableFuture<Integer> count(String tableName);
+
+    CompletableFuture<Integer> func(String funcName, String fieldName);
+
+    CompletableFuture<Integer> func(String funcName, String fieldName, Condition cnd);
+
+    CompletableFuture<List<AggRow>> aggregate(Condition cnd, String[] groupBy, Agg... aggs);
+
+    <V> CompletableFuture<List<V>> aggregate(Class<V> voType, Condition cnd, String[] groupBy, Agg... aggs);
+
+    CompletableFuture<Integer> getMaxId();
+
+    CompletableFuture<T> fetch(Long id);
+
+    CompletableFuture<T> fetch(String id);
+
+    CompletableFuture<T> fetch(Long id, String fieldName);
+
+    CompletableFuture<T> fetch(String id, String fieldName);
+
+    CompletableFuture<List<T>> fetchAll(Collection<?> ids);
+
+    CompletableFuture<List<T>> fetchAll(Collection<?> ids, String fieldName);
+
+    <K> CompletableFuture<Map<K, T>> fetchAllMap(Collection<K> ids);
+
+    <K> CompletableFuture<Map<K, T>> fetchAllMap(Collection<K> ids, String fieldName);
+
+    <E> CompletableFuture<E> fetchLinks(E obj, String regex);
+
+    <E> CompletableFuture<E> fetchLinks(E obj, String regex, Condition cnd);
+
+    <E> CompletableFuture<E> fetchLinks(E obj, String regex, FieldFilter fieldFilter);
+
+    CompletableFuture<List<T>> fetchLinksBatch(List<T> list, String linkName);
+
+    CompletableFuture<List<T>> fetchLinksBatch(List<T> list, String linkName, Condition cnd);
+
+    CompletableFuture<T> fetch(Condition cnd);
+
+    <E> CompletableFuture<E> insert(E obj);
+
+    <E> CompletableFuture<E> insertOrUpdate(E obj);
+
+    <E> CompletableFuture<E> insertOrUpdate(E obj, FieldFilter insertFieldFilter, FieldFilter updateFieldFilter);
+
+    <E> CompletableFuture<E> insertWith(E obj, String regex);
+
+    <E> CompletableFuture<E> insertLinks(E obj, String regex);
+
+    <E> CompletableFuture<E> insertRelation(E obj, String regex);
+
+    CompletableFuture<int[]> insertBatch(List<T> list, int batchSize);
+
+    CompletableFuture<int[]> insertWithBatch(List<T> list, String regex, int batchSize);
+
+    CompletableFuture<int[]> updateBatch(List<T> list, int batchSize);
+
+    CompletableFuture<int[]> updateIgnoreNullBatch(List<T> list);
+
+    CompletableFuture<int[]> updateIgnoreNullBatch(List<T> list, int batchSize);
+
+    CompletableFuture<int[]> upsertBatch(List<T> list, FieldFilter updateFields);
+
+    CompletableFuture<int[]> upsertBatch(List<T> list, FieldFilter updateFields, int batchSize);
+
+    CompletableFuture<Integer> update(Object obj);
+
+    CompletableFuture<Integer> updateRelation(Class<?> classOfT, String regex, Chain chain, Condition cnd);
+
+    CompletableFuture<Integer> updateIgnoreNull(Object obj);
+
+    <E> CompletableFuture<E> updateWith(E obj, String regex);
+
+    <E> CompletableFuture<E> updateLinks(E obj, String regex);
+
+    CompletableFuture<Integer> delete(long id);
+
+    CompletableFuture<Integer> delete(String id);
+
+    CompletableFuture<Void> delete(Long[] ids);
+
+    CompletableFuture<Void> delete(String[] ids);
+
+    CompletableFuture<Integer> deleteBatch(Collection<?> ids, int chunkSize);
+
+    CompletableFuture<Integer> deleteBatch(Collection<?> ids, int chunkSize, boolean transPerChunk);
+
+    CompletableFuture<Integer> deleteAll(List<T> list);
+
+    CompletableFuture<Void> deleteWith(T obj, String regex);
+
+    CompletableFuture<Void> clearWith(T obj, String regex);
+
+    CompletableFuture<Integer> clear();
+
+    CompletableFuture<Integer> clear(String tableName);
+
+    CompletableFuture<Integer> clear(Condition cnd);
+
+    CompletableFuture<Integer> clear(String tableName, Condition cnd);
+
+    <E> CompletableFuture<E> clearLinks(E obj, String regex);
+
+    CompletableFuture<T> getField(String fieldName, long id);
+
+    CompletableFuture<T> getField(String fieldName, String id);
+
+    CompletableFuture<T> getField(String fieldName, Condition cnd);
+
+    CompletableFuture<List<T>> query(String fieldName, Condition cnd);
+
+    CompletableFuture<List<T>> query(Condition cnd);
+
+    CompletableFuture<List<T>> query();
+
+    CompletableFuture<List<T>> query(String linkName);
+
+    CompletableFuture<List<T>> query(Condition cnd, String linkName);
+
+    CompletableFuture<List<T>> query(Condition cnd, String linkName, String fieldName, Pager pager);
+
+    CompletableFuture<QueryResult> queryPager(Condition cnd, String linkName, String fieldName, Pager pager);
+
+    CompletableFuture<QueryResult> queryByJoinPager(Condition cnd, String linkName, String filedName1, Pager pager, Condition cnd1);
+
+    CompletableFuture<List<T>> query(Condition cnd, String linkName, Pager pager);
+
+    CompletableFuture<List<T>> query(Condition cnd, Pager pager);
+
+    <R> CompletableFuture<R> onShard(Object shardKey, Callable<R> callable);
+
+    CompletableFuture<List<T>> queryShards(Condition cnd, Pager pager);
+
+    CompletableFuture<Integer> countShards(Condition cnd);
+
+    CompletableFuture<QueryResult> queryPagerShards(Pager pager, Condition cnd);
+
+    CompletableFuture<List<T>> query(Condition cnd, String linkName, Pager pager, FieldMatcher fieldMatcher);
+
+    CompletableFuture<KeysetPage<T>> queryKeyset(Condition cnd, String token, int pageSize);
+
+    CompletableFuture<KeysetPage<T>> queryKeyset(Condition cnd, String token, int pageSize, boolean desc, String... keyFields);
+
+    CompletableFuture<Integer> each(Condition cnd, Each<T> callback);
+
+    CompletableFuture<Integer> each(Condition cnd, Each<T> callback, boolean reuse);
+
+    CompletableFuture<Integer> exportCsv(Condition cnd, OutputStream out, String... fieldNames);
+
+    CompletableFuture<Integer> exportCsv(String sql, Map<String, Object> params, OutputStream out, String... columns);
+
+    CompletableFuture<Integer> exportJsonLines(Condition cnd, OutputStream out, String... fieldNames);
+
+    CompletableFuture<Integer> exportJsonLines(String sql, Map<String, Object> params, OutputStream out, String... columns);
+
+    CompletableFuture<LongList> queryLongColumn(String fieldName, Condition cnd);
+
+    CompletableFuture<Integer> queryLongColumn(String fieldName, Condition cnd, LongConsumer callback);
+
+    CompletableFuture<IntList> queryIntColumn(String fieldName, Condition cnd);
+
+    CompletableFuture<Integer> queryIntColumn(String fieldName, Condition cnd, IntConsumer callback);
+
+    CompletableFuture<List<String>> queryStringColumn(String fieldName, Condition cnd);
+
+    CompletableFuture<Integer> queryStringColumn(String fieldName, Condition cnd, Consumer<String> callback);
+
+    CompletableFuture<List<T>> queryByJoin(Condition cnd, String linkName, String fieldName1, Pager pager, Class<?> klass, String fieldName2);
+
+    CompletableFuture<List<T>> queryByJoin(Condition cnd, String linkName, String filedName1, Pager pager, Condition cnd1, String filedName2);
+
+    CompletableFuture<List<T>> queryByJoin(Condition cnd, String linkName, String fieldName1, Pager pager, Class<?> klass, String fieldName2, Class<?> klass1, String fieldName3);
+
+    CompletableFuture<List<T>> queryByJoin(String linkName, Condition cnd);
+
+    <E> CompletableFuture<List<E>> getByList(String sql);
+
+    <E> CompletableFuture<List<E>> getByList(String sql, Map<String, Object> params);
+
+    CompletableFuture<QueryResult> getByListVO(Class<?> t, String sql);
+
+    CompletableFuture<QueryResult> getByListVO(Class<?> t, String sql, Map<String, Object> params);
+
+    CompletableFuture<QueryResult> getPagerByList(String sql, Pager pager);
+
+    CompletableFuture<QueryResult> getPagerByList(String sql, Map<String, Object> params, Pager pager);
+
+    CompletableFuture<QueryResult> getPagerByList(String sql, String countSql, Map<String, Object> params, Pager pager);
+
+    CompletableFuture<QueryResult> getPagerByListNoCount(String sql, Map<String, Object> params, Pager pager);
+
+    CompletableFuture<QueryResult> getPagerByList(Class<?> t, String sql, Pager pager);
+
+    CompletableFuture<QueryResult> getPagerByList(Class<?> t, String sql, Map<String, Object> params, Pager pager);
+
+    CompletableFuture<QueryResult> getPagerByList(Class<?> t, String sql, String countSql, Map<String, Object> params, Pager pager);
+
+    CompletableFuture<QueryResult> getPagerByListNoCount(Class<?> t, String sql, Map<String, Object> params, Pager pager);
+
+    CompletableFuture<QueryResult> queryPager(Pager pager, Condition cnd);
+
+    CompletableFuture<QueryResult> queryPager(Pager pager, String linkName, Condition cnd);
+}
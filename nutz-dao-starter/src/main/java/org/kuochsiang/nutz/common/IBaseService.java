@@ -2,8 +2,17 @@ package org.kuochsiang.nutz.common;
 
 import org.nutz.dao.*;
 import org.nutz.dao.pager.Pager;
+import org.nutz.lang.Each;
 
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
 
 public interface IBaseService<T> {
     Dao dao();
@@ -20,6 +29,10 @@ public interface IBaseService<T> {
 
     public int func(String funcName, String fieldName, Condition cnd);
 
+    public List<AggRow> aggregate(Condition cnd, String[] groupBy, Agg... aggs);
+
+    public <V> List<V> aggregate(Class<V> voType, Condition cnd, String[] groupBy, Agg... aggs);
+
     public int getMaxId();
 
     public T fetch(Long id);
@@ -30,6 +43,14 @@ public interface IBaseService<T> {
 
     public T fetch(String id, String fieldName);
 
+    public List<T> fetchAll(Collection<?> ids);
+
+    public List<T> fetchAll(Collection<?> ids, String fieldName);
+
+    public <K> Map<K, T> fetchAllMap(Collection<K> ids);
+
+    public <K> Map<K, T> fetchAllMap(Collection<K> ids, String fieldName);
+
 
     public <T> T fetchLinks(T obj, String regex);
 
@@ -37,6 +58,10 @@ public interface IBaseService<T> {
 
     public <T> T fetchLinks(T obj, String regex, FieldFilter fieldFilter);
 
+    public List<T> fetchLinksBatch(List<T> list, String linkName);
+
+    public List<T> fetchLinksBatch(List<T> list, String linkName, Condition cnd);
+
     public T fetch(Condition cnd);
 
     public <T> T insert(T obj);
@@ -51,6 +76,20 @@ public interface IBaseService<T> {
 
     public <T> T insertRelation(T obj, String regex);
 
+    public int[] insertBatch(List<T> list, int batchSize);
+
+    public int[] insertWithBatch(List<T> list, String regex, int batchSize);
+
+    public int[] updateBatch(List<T> list, int batchSize);
+
+    public int[] updateIgnoreNullBatch(List<T> list);
+
+    public int[] updateIgnoreNullBatch(List<T> list, int batchSize);
+
+    public int[] upsertBatch(List<T> list, FieldFilter updateFields);
+
+    public int[] upsertBatch(List<T> list, FieldFilter updateFields, int batchSize);
+
     public int update(Object obj);
 
     public int updateRelation(Class<?> classOfT, String regex, Chain chain, Condition cnd);
@@ -69,6 +108,12 @@ public interface IBaseService<T> {
 
     public void delete(String[] ids);
 
+    public int deleteBatch(Collection<?> ids, int chunkSize);
+
+    public int deleteBatch(Collection<?> ids, int chunkSize, boolean transPerChunk);
+
+    public int deleteAll(List<T> list);
+
     public void deleteWith(T obj, String regex);
 
     public void clearWith(T obj, String regex);
@@ -109,8 +154,46 @@ public interface IBaseService<T> {
 
     public List<T> query(Condition cnd, Pager pager);
 
+    public <R> R onShard(Object shardKey, Callable<R> callable);
+
+    public List<T> queryShards(Condition cnd, Pager pager);
+
+    public int countShards(Condition cnd);
+
+    public QueryResult queryPagerShards(Pager pager, Condition cnd);
+
     public List<T> query(Condition cnd, String linkName, Pager pager, FieldMatcher fieldMatcher);
 
+    public KeysetPage<T> queryKeyset(Condition cnd, String token, int pageSize);
+
+    public KeysetPage<T> queryKeyset(Condition cnd, String token, int pageSize, boolean desc, String... keyFields);
+
+    public int each(Condition cnd, Each<T> callback);
+
+    public int each(Condition cnd, Each<T> callback, boolean reuse);
+
+    public Stream<T> stream(Condition cnd);
+
+    public int exportCsv(Condition cnd, OutputStream out, String... fieldNames);
+
+    public int exportCsv(String sql, Map<String, Object> params, OutputStream out, String... columns);
+
+    public int exportJsonLines(Condition cnd, OutputStream out, String... fieldNames);
+
+    public int exportJsonLines(String sql, Map<String, Object> params, OutputStream out, String... columns);
+
+    public LongList queryLongColumn(String fieldName, Condition cnd);
+
+    public int queryLongColumn(String fieldName, Condition cnd, LongConsumer callback);
+
+    public IntList queryIntColumn(String fieldName, Condition cnd);
+
+    public int queryIntColumn(String fieldName, Condition cnd, IntConsumer callback);
+
+    public List<String> queryStringColumn(String fieldName, Condition cnd);
+
+    public int queryStringColumn(String fieldName, Condition cnd, Consumer<String> callback);
+
     public List<T> queryByJoin(Condition cnd, String linkName, String fieldName1, Pager pager, Class<?> klass, String fieldName2);
 
     public List<T> queryByJoin(Condition cnd, String linkName, String filedName1, Pager pager, Condition cnd1, String filedName2);
@@ -121,12 +204,28 @@ public interface IBaseService<T> {
 
     public <T> List<T> getByList(String sql);
 
+    public <T> List<T> getByList(String sql, Map<String, Object> params);
+
     public <T> QueryResult getByListVO(Class<?> t, String sql);
 
+    public <T> QueryResult getByListVO(Class<?> t, String sql, Map<String, Object> params);
+
     public <T> QueryResult getPagerByList(String sql, Pager pager);
 
+    public <T> QueryResult getPagerByList(String sql, Map<String, Object> params, Pager pager);
+
+    public <T> QueryResult getPagerByList(String sql, String countSql, Map<String, Object> params, Pager pager);
+
+    public <T> QueryResult getPagerByListNoCount(String sql, Map<String, Object> params, Pager pager);
+
     public <T> QueryResult getPagerByList(Class<?> t, String sql, Pager pager);
 
+    public <T> QueryResult getPagerByList(Class<?> t, String sql, Map<String, Object> params, Pager pager);
+
+    public <T> QueryResult getPagerByList(Class<?> t, String sql, String countSql, Map<String, Object> params, Pager pager);
+
+    public <T> QueryResult getPagerByListNoCount(Class<?> t, String sql, Map<String, Object> params, Pager pager);
+
     public QueryResult queryPager(Pager pager, Condition cnd);
 
     public QueryResult queryPager(Pager pager, String linkName, Condition cnd);
@@ -0,0 +1,206 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.entity.Entity;
+import org.nutz.lang.Lang;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 事务或请求范围内的一级缓存, 同一范围内按主键重复 fetch 返回同一个对象实例
+ * <p>
+ * 范围:
+ * <ul>
+ * <li>Spring 事务(含事务同步), 提交或回滚后清空</li>
+ * <li>{@link #run(Callable)}, 例如在 Filter 中包住整个请求, 结束后清空</li>
+ * </ul>
+ * 对象按 表名(动态表名取当前值) + 主键 区分, 同一行无论通过 fetch(id) 还是 fetch(Condition) 取得都是同一个实例。
+ * 对象按表名登记, 经过 Dao 写入某个表时, {@link TableChangeInterceptor} 清空当前范围内该表的全部对象。
+ * 直接通过 JDBC 连接写入不会清空
+ *
+ * @see BaseServiceImpl#setIdentityMap(boolean)
+ */
+public class IdentityMap {
+
+    private static final Object RESOURCE_KEY = new Object();
+
+    private static final ThreadLocal<IdentityMap> SCOPE = new ThreadLocal<IdentityMap>();
+
+    private static final AtomicLong SAVED = new AtomicLong();
+
+    /**
+     * 表名 -> 主键(Long 或 String) -> 对象
+     */
+    private final Map<String, Map<Object, Object>> entities = new HashMap<String, Map<Object, Object>>();
+
+    /**
+     * 表名 -> 条件语句 -> 对象, 用于 fetch(Condition)
+     */
+    private final Map<String, Map<String, Object>> conditions = new HashMap<String, Map<String, Object>>();
+
+    private long hits;
+
+    /**
+     * 在请求范围内执行, 已处于某个范围内时直接执行
+     *
+     * @param callable 操作
+     * @param <V>      返回类型
+     * @return 结果
+     */
+    public static <V> V run(Callable<V> callable) {
+        if (SCOPE.get() != null) {
+            return call(callable);
+        }
+        SCOPE.set(new IdentityMap());
+        try {
+            return call(callable);
+        } finally {
+            SCOPE.remove();
+        }
+    }
+
+    /**
+     * @return 当前范围的一级缓存, 需要时绑定到当前 Spring 事务; 不在任何范围内时返回null
+     */
+    public static IdentityMap current() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return SCOPE.get();
+        }
+        IdentityMap map = (IdentityMap) TransactionSynchronizationManager.getResource(RESOURCE_KEY);
+        if (map == null) {
+            final IdentityMap created = new IdentityMap();
+            TransactionSynchronizationManager.bindResource(RESOURCE_KEY, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                public void suspend() {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RESOURCE_KEY);
+                }
+
+                public void resume() {
+                    TransactionSynchronizationManager.bindResource(RESOURCE_KEY, created);
+                }
+
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RESOURCE_KEY);
+                }
+            });
+            map = created;
+        }
+        return map;
+    }
+
+    /**
+     * @return 当前范围已有的一级缓存, 不会新建
+     */
+    public static IdentityMap peek() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            IdentityMap map = (IdentityMap) TransactionSynchronizationManager.getResource(RESOURCE_KEY);
+            if (map != null) {
+                return map;
+            }
+        }
+        return SCOPE.get();
+    }
+
+    /**
+     * @return 所有范围累计省去的查询语句数
+     */
+    public static long getSavedStatements() {
+        return SAVED.get();
+    }
+
+    /**
+     * @param en 实体, 表名按当前的动态表名解析
+     * @param id 主键
+     * @return 对象, 没有或类型不同时为null
+     */
+    public <T> T get(Entity<T> en, Object id) {
+        Map<Object, Object> map = entities.get(keyOf(en));
+        return this.hit(en, map == null ? null : map.get(id));
+    }
+
+    /**
+     * 登记对象, 该主键已有同类型的对象时不替换
+     *
+     * @return 该主键在本范围内的对象
+     */
+    public <T> T putIfAbsent(Entity<T> en, Object id, T obj) {
+        String key = keyOf(en);
+        Map<Object, Object> map = entities.get(key);
+        if (map == null) {
+            map = new HashMap<Object, Object>();
+            entities.put(key, map);
+        }
+        Object re = map.get(id);
+        if (en.getType().isInstance(re)) {
+            return en.getType().cast(re);
+        }
+        map.put(id, obj);
+        return obj;
+    }
+
+    public <T> T getByCondition(Entity<T> en, String cnd) {
+        Map<String, Object> map = conditions.get(keyOf(en));
+        return this.hit(en, map == null ? null : map.get(cnd));
+    }
+
+    public void putByCondition(Entity<?> en, String cnd, Object obj) {
+        String key = keyOf(en);
+        Map<String, Object> map = conditions.get(key);
+        if (map == null) {
+            map = new HashMap<String, Object>();
+            conditions.put(key, map);
+        }
+        map.put(cnd, obj);
+    }
+
+    /**
+     * 清空一个表的全部对象
+     *
+     * @param tableName 表名, 可以带 schema 和引号
+     */
+    public void clear(String tableName) {
+        String key = TableVersions.normalize(tableName);
+        entities.remove(key);
+        conditions.remove(key);
+    }
+
+    /**
+     * 清空全部对象, 用于无法确定所写的表时
+     */
+    public void clearAll() {
+        entities.clear();
+        conditions.clear();
+    }
+
+    /**
+     * @return 本范围内省去的查询语句数
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    private <T> T hit(Entity<T> en, Object obj) {
+        if (!en.getType().isInstance(obj)) {
+            return null;
+        }
+        hits++;
+        SAVED.incrementAndGet();
+        return en.getType().cast(obj);
+    }
+
+    private static String keyOf(Entity<?> en) {
+        return TableVersions.normalize(en.getTableName());
+    }
+
+    private static <V> V call(Callable<V> callable) {
+        try {
+            return callable.call();
+        } catch (Exception e) {
+            throw Lang.wrapThrow(e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.kuochsiang.nutz.common;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * 以 int[] 存储的可增长列表, 每个元素占 4 字节, 不创建 Integer 对象
+ * <p>
+ * 按 List&lt;Integer&gt; 访问时才装箱, 批量处理请使用 {@link #getInt(int)} 或 {@link #toIntArray()}
+ */
+public class IntList extends AbstractList<Integer> implements RandomAccess {
+
+    private int[] values;
+
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        this.values = new int[Math.max(capacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length + (values.length >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    public boolean add(Integer value) {
+        this.add(value.intValue());
+        return true;
+    }
+
+    public int getInt(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    public Integer get(int index) {
+        return this.getInt(index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 新数组, 长度为 size()
+     */
+    public int[] toIntArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,93 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.castor.Castors;
+import org.nutz.dao.entity.MappingField;
+import org.nutz.json.Json;
+import org.nutz.json.JsonFormat;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 键集(seek)分页结果
+ * <p>
+ * 通过上一页最后一条记录的排序键值定位下一页, 不使用 OFFSET, 任意深度的翻页代价相同。
+ * nextToken 为不透明的续页标记, 原样传回 queryKeyset 即可获取下一页
+ *
+ * @param <T> 对象类型
+ */
+public class KeysetPage<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private List<T> list;
+
+    private String nextToken;
+
+    public KeysetPage(List<T> list, String nextToken) {
+        this.list = list;
+        this.nextToken = nextToken;
+    }
+
+    public List<T> getList() {
+        return list;
+    }
+
+    /**
+     * @return 下一页标记, 没有下一页时为null
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    /**
+     * 将对象的排序键值编码为续页标记
+     *
+     * @param keys 排序键字段
+     * @param obj  当前页最后一条记录
+     * @return 续页标记
+     */
+    static String encode(List<MappingField> keys, Object obj) {
+        List<Object> values = new ArrayList<Object>(keys.size());
+        for (MappingField mf : keys) {
+            Object v = mf.getValue(obj);
+            values.add(v instanceof Date ? ((Date) v).getTime() : v);
+        }
+        String json = Json.toJson(values, JsonFormat.compact());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(UTF8));
+    }
+
+    /**
+     * 将续页标记还原为排序键值
+     *
+     * @param token 续页标记
+     * @param keys  排序键字段
+     * @return 按排序键字段类型转换后的值
+     */
+    static Object[] decode(String token, List<MappingField> keys) {
+        List<?> values;
+        try {
+            values = (List<?>) Json.fromJson(new String(Base64.getUrlDecoder().decode(token), UTF8));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid keyset token: " + token, e);
+        }
+        if (values == null || values.size() != keys.size()) {
+            throw new IllegalArgumentException("keyset token does not match sort keys: " + token);
+        }
+        Object[] re = new Object[keys.size()];
+        for (int i = 0; i < re.length; i++) {
+            re[i] = Castors.me().castTo(values.get(i), keys.get(i).getTypeClass());
+        }
+        return re;
+    }
+}
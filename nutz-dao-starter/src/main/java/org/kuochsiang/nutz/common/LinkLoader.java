@@ -0,0 +1,160 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.Cnd;
+import org.nutz.dao.Condition;
+import org.nutz.dao.Dao;
+import org.nutz.dao.entity.Entity;
+import org.nutz.dao.entity.LinkField;
+import org.nutz.dao.entity.LinkType;
+import org.nutz.dao.entity.MappingField;
+import org.nutz.dao.util.cri.OrderBySet;
+import org.nutz.dao.util.cri.SqlExpressionGroup;
+
+import org.nutz.lang.Strings;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 批量加载关联对象
+ * <p>
+ * dao.fetchLinks(list, regex) 对每个对象的每个关联各执行一次查询(N+1)。
+ * 这里先收集整个列表的关联键值, 每个关联按 IN (...) 分批查询一次, 再按键值回填到各个对象上。
+ * 回填和 Nutz 一样经过 LinkField.setValue, 数组、Set 以及 @Many(key=...) 的 Map 字段由 Castors 转换。
+ * 只处理 @One 和 @Many, @ManyMany、没有关联字段的 @Many 以及带分页的条件仍然逐个调用 dao.fetchLinks
+ */
+public abstract class LinkLoader {
+
+    /**
+     * 批量加载关联对象
+     *
+     * @param dao       Dao
+     * @param list      主表对象列表, 对象类型需一致
+     * @param regex     关联字段，支持正则 ^(a|b)$
+     * @param chunkSize 每次 IN 查询的键值个数
+     * @param <E>       主表对象类型
+     * @return 传入的列表
+     */
+    public static <E> List<E> fetchLinks(Dao dao, List<E> list, String regex, int chunkSize) {
+        return fetchLinks(dao, list, regex, null, chunkSize);
+    }
+
+    /**
+     * 批量加载关联对象, 和 dao.fetchLinks(obj, regex, cnd) 一样, 条件只作用于 @Many 和 @ManyMany
+     *
+     * @param dao       Dao
+     * @param list      主表对象列表, 对象类型需一致
+     * @param regex     关联字段，支持正则 ^(a|b)$
+     * @param cnd       关联对象的查询条件和排序, 可以是null
+     * @param chunkSize 每次 IN 查询的键值个数
+     * @param <E>       主表对象类型
+     * @return 传入的列表
+     */
+    public static <E> List<E> fetchLinks(Dao dao, List<E> list, String regex, Condition cnd, int chunkSize) {
+        if (list == null || list.isEmpty()) {
+            return list;
+        }
+        Entity<?> en = dao.getEntity(list.get(0).getClass());
+        for (LinkField lnk : en.getLinkFields(regex)) {
+            Condition linkCnd = lnk.getLinkType() == LinkType.ONE ? null : cnd;
+            if (lnk.getLinkType() == LinkType.MANYMANY || lnk.getHostField() == null || lnk.getLinkedField() == null
+                    || !batchable(linkCnd, lnk.getLinkedEntity()) || !fetch(dao, list, lnk, (Cnd) linkCnd, chunkSize)) {
+                for (E obj : list) {
+                    dao.fetchLinks(obj, lnk.getName(), linkCnd);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 分页或 GROUP BY 是对每个主表对象分别生效的, 不能合并成一次 IN 查询
+     */
+    private static boolean batchable(Condition cnd, Entity<?> linked) {
+        if (cnd == null) {
+            return true;
+        }
+        if (!(cnd instanceof Cnd)) {
+            return false;
+        }
+        Cnd c = (Cnd) cnd;
+        return c.getPager() == null && Strings.isBlank(c.getGroupBy().toSql(linked))
+                && c.getOrderBy() instanceof OrderBySet;
+    }
+
+    /**
+     * @return 副表对象取不到关联字段的值(例如被 FieldFilter 过滤掉)时返回 false, 此时没有回填任何对象
+     */
+    private static <E> boolean fetch(Dao dao, List<E> list, LinkField lnk, Cnd cnd, int chunkSize) {
+        MappingField hostField = lnk.getHostField();
+        MappingField linkedField = lnk.getLinkedField();
+        Entity<?> linked = lnk.getLinkedEntity();
+        Set<Object> keys = new LinkedHashSet<Object>();
+        Set<Object> wanted = new HashSet<Object>();
+        for (E obj : list) {
+            Object key = hostField.getValue(obj);
+            if (key != null) {
+                keys.add(key);
+                wanted.add(keyOf(key));
+            }
+        }
+        Map<Object, List<Object>> children = new HashMap<Object, List<Object>>();
+        for (List<Object> chunk : BaseServiceImpl.partition(new ArrayList<Object>(keys), chunkSize)) {
+            for (Object child : dao.query(linked.getType(), inCondition(linkedField, chunk, cnd))) {
+                Object key = keyOf(linkedField.getValue(child));
+                if (!wanted.contains(key)) {
+                    return false;
+                }
+                List<Object> group = children.get(key);
+                if (group == null) {
+                    group = new ArrayList<Object>();
+                    children.put(key, group);
+                }
+                group.add(child);
+            }
+        }
+        for (E obj : list) {
+            Object key = hostField.getValue(obj);
+            List<Object> group = key == null ? null : children.get(keyOf(key));
+            if (lnk.getLinkType() == LinkType.ONE) {
+                lnk.setValue(obj, group == null ? null : group.get(0));
+            } else {
+                lnk.setValue(obj, group == null ? new ArrayList<Object>() : new ArrayList<Object>(group));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 生成 linkedField IN (...) AND (cnd 的条件) 并带上 cnd 的排序。同一主表对象的关联对象在同一次查询中, 顺序和逐个查询一致
+     */
+    private static Cnd inCondition(MappingField linkedField, List<Object> keys, Cnd cnd) {
+        Cnd re = Cnd.where(linkedField.getName(), "in", keys);
+        if (cnd == null) {
+            return re;
+        }
+        Cnd copy = cnd.clone();
+        SqlExpressionGroup where = copy.where();
+        if (!where.isEmpty()) {
+            re.and(where);
+        }
+        ((OrderBySet) re.getOrderBy()).getItems().addAll(((OrderBySet) copy.getOrderBy()).getItems());
+        return re;
+    }
+
+    /**
+     * 主表和副表的关联字段类型可能不同(例如 int 和 long), 整数统一按 Long 比较
+     */
+    static Object keyOf(Object v) {
+        if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte || v instanceof BigInteger) {
+            return ((Number) v).longValue();
+        }
+        return v;
+    }
+}
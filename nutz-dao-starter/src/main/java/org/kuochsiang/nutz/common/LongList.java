@@ -0,0 +1,59 @@
+package org.kuochsiang.nutz.common;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * 以 long[] 存储的可增长列表, 每个元素占 8 字节, 不创建 Long 对象
+ * <p>
+ * 按 List&lt;Long&gt; 访问时才装箱, 批量处理请使用 {@link #getLong(int)} 或 {@link #toLongArray()}
+ */
+public class LongList extends AbstractList<Long> implements RandomAccess {
+
+    private long[] values;
+
+    private int size;
+
+    public LongList() {
+        this(16);
+    }
+
+    public LongList(int capacity) {
+        this.values = new long[Math.max(capacity, 1)];
+    }
+
+    public void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length + (values.length >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    public boolean add(Long value) {
+        this.add(value.longValue());
+        return true;
+    }
+
+    public long getLong(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    public Long get(int index) {
+        return this.getLong(index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 新数组, 长度为 size()
+     */
+    public long[] toLongArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
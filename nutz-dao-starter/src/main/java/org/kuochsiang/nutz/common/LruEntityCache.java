@@ -0,0 +1,51 @@
+package org.kuochsiang.nutz.common;
+
+/**
+ * 基于 {@link TtlCache} 的实体缓存, 容量满时淘汰最久未访问的对象
+ *
+ * @param <T> 实体类型
+ */
+public class LruEntityCache<T> implements EntityCache<T> {
+
+    private final TtlCache<Object, T> cache;
+
+    /**
+     * @param maxSize   最大缓存对象数
+     * @param ttlMillis 过期时间(毫秒), 小于等于0表示不过期
+     */
+    public LruEntityCache(int maxSize, long ttlMillis) {
+        this.cache = new TtlCache<Object, T>(maxSize, ttlMillis);
+    }
+
+    public T get(Object id) {
+        return cache.get(id);
+    }
+
+    public void put(Object id, T obj) {
+        cache.put(id, obj);
+    }
+
+    public void remove(Object id) {
+        cache.remove(id);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+}
@@ -0,0 +1,168 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.lang.Lang;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * 查询结果缓存, 供 query(Condition)/query(Condition, Pager)/count(Condition) 使用, 线程安全
+ * <p>
+ * 容量按缓存的总行数计算(count 结果按1行), 超出时淘汰最久未访问的结果。
+ * 失效按表进行: 缓存的结果记录查询前的表版本号(见 {@link TableVersions}), 读取时版本号不同即视为失效,
+ * 所以不同 service 之间不需要互相登记。经过 Dao 执行的写语句由 {@link TableChangeInterceptor} 递增版本号
+ *
+ * @see BaseServiceImpl#setQueryCache(int, long)
+ */
+public class QueryCache {
+
+    private final int maxRows;
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Item> map = new LinkedHashMap<String, Item>(16, 0.75f, true);
+
+    private int rows;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    /**
+     * @param maxRows   最多缓存的总行数
+     * @param ttlMillis 过期时间(毫秒), 小于等于0表示不过期
+     */
+    public QueryCache(int maxRows, long ttlMillis) {
+        this.maxRows = maxRows;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 读取缓存的结果, 没有或已失效时执行查询并放入缓存。
+     * 列表结果每次返回新的列表, 其中的对象是共享的, 不要修改
+     *
+     * @param tableName 查询的表, 用于失效判断
+     * @param key       缓存键
+     * @param query     实际执行的查询
+     * @param <V>       结果类型
+     * @return 结果
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(String tableName, String key, Callable<V> query) {
+        long v = TableVersions.version(tableName);
+        Object value = this.lookup(key, v);
+        if (value == null) {
+            try {
+                value = query.call();
+            } catch (Exception e) {
+                throw Lang.wrapThrow(e);
+            }
+            if (value == null) {
+                return null;
+            }
+            // 查询期间表被写入过时不放入缓存
+            if (TableVersions.version(tableName) == v) {
+                this.store(key, value, v);
+            }
+        }
+        return value instanceof List ? (V) new ArrayList<Object>((Collection<?>) value) : (V) value;
+    }
+
+    private synchronized Object lookup(String key, long version) {
+        Item item = map.get(key);
+        if (item == null) {
+            missCount++;
+            return null;
+        }
+        if (item.version != version || System.currentTimeMillis() >= item.expireAt) {
+            this.removeItem(key);
+            if (item.version == version) {
+                evictionCount++;
+            }
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return item.value;
+    }
+
+    private synchronized void store(String key, Object value, long version) {
+        int weight = value instanceof Collection ? Math.max(1, ((Collection<?>) value).size()) : 1;
+        if (weight > maxRows) {
+            return;
+        }
+        this.removeItem(key);
+        long expireAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+        map.put(key, new Item(value, version, expireAt, weight));
+        rows += weight;
+        Iterator<Item> it = map.values().iterator();
+        while (rows > maxRows && it.hasNext()) {
+            rows -= it.next().weight;
+            it.remove();
+            evictionCount++;
+        }
+    }
+
+    private void removeItem(String key) {
+        Item item = map.remove(key);
+        if (item != null) {
+            rows -= item.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        rows = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * @return 当前缓存的总行数
+     */
+    public synchronized int getRows() {
+        return rows;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return 因容量或过期被淘汰的条数(不含失效和主动清除)
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static class Item {
+
+        final Object value;
+
+        final long version;
+
+        final long expireAt;
+
+        final int weight;
+
+        Item(Object value, long version, long expireAt, int weight) {
+            this.value = value;
+            this.version = version;
+            this.expireAt = expireAt;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.ConnCallback;
+import org.nutz.dao.DaoInterceptorChain;
+import org.nutz.dao.impl.DaoRunner;
+import org.nutz.dao.sql.DaoStatement;
+import org.nutz.lang.Lang;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离的 DaoRunner, 包装 Dao 原有的 DaoRunner
+ * <p>
+ * 只包含查询语句(fetch/query/count/func/getByList 等)的调用发往从库, 以下情况使用主库:
+ * <ul>
+ * <li>写语句, 以及直接使用连接的 dao.run(ConnCallback)</li>
+ * <li>处于 Spring 或 Nutz 事务中</li>
+ * <li>当前线程最近一次写操作后的 readYourWrites 时间内</li>
+ * <li>在 {@link #primary(Callable)} 中执行</li>
+ * </ul>
+ * 用法:
+ * <pre>
+ * dao.setRunner(new ReadWriteRouter(new SpringDaoRunner(), Arrays.asList(replica1, replica2)));
+ * </pre>
+ */
+public class ReadWriteRouter implements DaoRunner {
+
+    /**
+     * 从库选择策略
+     */
+    public enum Strategy {
+        /**
+         * 轮询
+         */
+        ROUND_ROBIN,
+        /**
+         * 正在执行的语句数最少的从库
+         */
+        LEAST_LOADED
+    }
+
+    private static final ThreadLocal<Route> ROUTE = new ThreadLocal<Route>() {
+        protected Route initialValue() {
+            return new Route();
+        }
+    };
+
+    private final DaoRunner delegate;
+
+    private final List<DataSource> replicas;
+
+    private final AtomicInteger[] inFlight;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private Strategy strategy = Strategy.ROUND_ROBIN;
+
+    private long readYourWritesNanos;
+
+    /**
+     * @param delegate Dao 原有的 DaoRunner, 例如 SpringDaoRunner
+     * @param replicas 从库数据源
+     */
+    public ReadWriteRouter(DaoRunner delegate, List<DataSource> replicas) {
+        if (replicas == null || replicas.isEmpty()) {
+            throw new IllegalArgumentException("replicas must not be empty");
+        }
+        this.delegate = delegate;
+        this.replicas = new ArrayList<DataSource>(replicas);
+        this.inFlight = new AtomicInteger[replicas.size()];
+        for (int i = 0; i < inFlight.length; i++) {
+            inFlight[i] = new AtomicInteger();
+        }
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public long getReadYourWrites() {
+        return TimeUnit.NANOSECONDS.toMillis(readYourWritesNanos);
+    }
+
+    /**
+     * 设置写后读主库的时间窗口, 同一线程写操作之后这段时间内的查询仍然发往主库, 避免读到从库的旧数据
+     *
+     * @param millis 毫秒, 小于等于0时关闭
+     */
+    public void setReadYourWrites(long millis) {
+        this.readYourWritesNanos = millis > 0 ? TimeUnit.MILLISECONDS.toNanos(millis) : 0;
+    }
+
+    /**
+     * @return 各从库正在执行的语句数
+     */
+    public int[] getInFlight() {
+        int[] re = new int[inFlight.length];
+        for (int i = 0; i < re.length; i++) {
+            re[i] = inFlight[i].get();
+        }
+        return re;
+    }
+
+    /**
+     * 在主库上执行, 包括其中的查询
+     *
+     * @param callable 数据库操作
+     * @param <V>      返回类型
+     * @return 结果
+     */
+    public static <V> V primary(Callable<V> callable) {
+        return with(Boolean.TRUE, callable);
+    }
+
+    /**
+     * 查询发往从库, 忽略写后读主库的时间窗口, 也用于 each 等通过 dao.run(ConnCallback) 直接使用连接的查询。
+     * 写语句和事务中的操作仍然使用主库。
+     * stream 不经过 DaoRunner, 直接从 Dao 的数据源取连接, 总是使用主库
+     *
+     * @param callable 数据库操作
+     * @param <V>      返回类型
+     * @return 结果
+     */
+    public static <V> V replica(Callable<V> callable) {
+        return with(Boolean.FALSE, callable);
+    }
+
+    private static <V> V with(Boolean primary, Callable<V> callable) {
+        Route route = ROUTE.get();
+        Boolean old = route.primary;
+        route.primary = primary;
+        try {
+            return callable.call();
+        } catch (Exception e) {
+            throw Lang.wrapThrow(e);
+        } finally {
+            route.primary = old;
+        }
+    }
+
+    public void run(DataSource dataSource, ConnCallback callback) {
+        Route route = ROUTE.get();
+        if (BaseServiceImpl.inTransaction() || Boolean.TRUE.equals(route.primary)) {
+            delegate.run(dataSource, callback);
+            return;
+        }
+        boolean replica = Boolean.FALSE.equals(route.primary);
+        if (!isRead(callback, replica)) {
+            route.lastWrite = System.nanoTime();
+            route.written = true;
+            delegate.run(dataSource, callback);
+            return;
+        }
+        if (!replica && route.written && readYourWritesNanos > 0
+                && System.nanoTime() - route.lastWrite < readYourWritesNanos) {
+            delegate.run(dataSource, callback);
+            return;
+        }
+        int i = this.select();
+        inFlight[i].incrementAndGet();
+        try {
+            delegate.run(replicas.get(i), callback);
+        } finally {
+            inFlight[i].decrementAndGet();
+        }
+    }
+
+    /**
+     * 只由查询语句组成的调用可以发往从库, 直接使用连接的回调只在显式指定从库时发往从库
+     */
+    private static boolean isRead(ConnCallback callback, boolean replica) {
+        if (!(callback instanceof DaoInterceptorChain)) {
+            return replica;
+        }
+        for (DaoStatement st : ((DaoInterceptorChain) callback).getDaoStatements()) {
+            if (!st.isSelect()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int select() {
+        int n = replicas.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+        if (strategy == Strategy.ROUND_ROBIN || n == 1) {
+            return start;
+        }
+        int re = start;
+        int min = inFlight[start].get();
+        for (int k = 1; k < n && min > 0; k++) {
+            int i = (start + k) % n;
+            int load = inFlight[i].get();
+            if (load < min) {
+                min = load;
+                re = i;
+            }
+        }
+        return re;
+    }
+
+    /**
+     * @return 当前线程的路由状态, 用于把状态带到其他线程
+     */
+    static Object snapshot() {
+        Route route = ROUTE.get();
+        Route re = new Route();
+        re.primary = route.primary;
+        re.lastWrite = route.lastWrite;
+        re.written = route.written;
+        return re;
+    }
+
+    /**
+     * 恢复 {@link #snapshot()} 得到的路由状态
+     *
+     * @return 恢复前的状态
+     */
+    static Object restore(Object snapshot) {
+        Route old = ROUTE.get();
+        ROUTE.set((Route) snapshot);
+        return old;
+    }
+
+    private static class Route {
+
+        /**
+         * TRUE 主库, FALSE 从库, null 自动
+         */
+        private Boolean primary;
+
+        private long lastWrite;
+
+        private boolean written;
+    }
+}
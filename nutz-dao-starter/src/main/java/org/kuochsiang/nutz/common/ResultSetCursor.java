@@ -0,0 +1,139 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.jdbc.ValueAdaptor;
+import org.nutz.dao.sql.Sql;
+import org.nutz.dao.util.Daos;
+import org.nutz.lang.Lang;
+import org.nutz.trans.Trans;
+import org.nutz.trans.Transaction;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 基于 ResultSet 的游标, 逐行读取, 不会一次性把结果集加载到内存
+ * <p>
+ * 在 Nutz 事务(Trans.exec)中使用事务的连接, 否则通过 {@link DataSourceUtils} 获取, 在 Spring 事务中会复用事务连接。
+ * 读取完毕或调用 {@link #close()} 时释放语句和连接, 事务的连接由事务关闭
+ *
+ * @param <T> 行对象类型
+ */
+public abstract class ResultSetCursor<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+
+    private final DataSource dataSource;
+
+    private Connection conn;
+
+    private boolean transactional;
+
+    private PreparedStatement ps;
+
+    private ResultSet rs;
+
+    protected ResultSetCursor(DataSource dataSource, Sql sql, int fetchSize) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.dataSource = dataSource;
+        try {
+            Transaction t = Trans.get();
+            if (t != null) {
+                this.transactional = true;
+                this.conn = t.getConnection(dataSource);
+            } else {
+                this.conn = DataSourceUtils.getConnection(dataSource);
+            }
+            this.ps = prepare(conn, sql, fetchSize);
+            this.rs = ps.executeQuery();
+        } catch (SQLException e) {
+            close();
+            throw Lang.wrapThrow(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 将当前行转换为对象
+     *
+     * @param rs 已定位到当前行的结果集
+     * @return 行对象
+     */
+    protected abstract T map(ResultSet rs) throws SQLException;
+
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (rs == null) {
+            return false;
+        }
+        try {
+            if (!rs.next()) {
+                close();
+                return false;
+            }
+            action.accept(map(rs));
+            return true;
+        } catch (SQLException e) {
+            close();
+            throw Lang.wrapThrow(e);
+        }
+    }
+
+    /**
+     * @return 关闭时自动释放连接的流
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(this, false).onClose(new Runnable() {
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    public void close() {
+        Daos.safeClose(ps, rs);
+        rs = null;
+        ps = null;
+        if (conn != null && !transactional) {
+            DataSourceUtils.releaseConnection(conn, dataSource);
+        }
+        conn = null;
+    }
+
+    /**
+     * 按 Nutz Sql 生成 PreparedStatement, 并设置参数和 fetchSize
+     *
+     * @param conn      连接
+     * @param sql       Nutz Sql(可以带 $condition 和 @参数)
+     * @param fetchSize JDBC fetchSize, 为0时使用驱动默认值(MySQL 流式读取需传 Integer.MIN_VALUE)
+     * @return 已绑定参数的语句
+     */
+    public static PreparedStatement prepare(Connection conn, Sql sql, int fetchSize) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement(sql.toPreparedStatement(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            if (fetchSize != 0) {
+                ps.setFetchSize(fetchSize);
+            }
+            Object[][] matrix = sql.getParamMatrix();
+            if (matrix != null && matrix.length > 0) {
+                ValueAdaptor[] adaptors = sql.getAdaptors();
+                Object[] params = matrix[0];
+                for (int i = 0; i < params.length; i++) {
+                    adaptors[i].set(ps, params[i], i + 1);
+                }
+            }
+            return ps;
+        } catch (SQLException e) {
+            Daos.safeClose(ps);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.kuochsiang.nutz.common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+
+/**
+ * 把结果集逐行写出为 CSV 或 JSON Lines(每行一个 JSON 对象), 直接从结果集读取列值, 不创建实体对象或 Record
+ * <p>
+ * 输出为 UTF-8, 经过固定大小的缓冲区写出, 每 flushRows 行 flush 一次, 内存占用与行数无关。
+ * 不会关闭输出流
+ *
+ * @see BaseServiceImpl#exportCsv(org.nutz.dao.Condition, OutputStream, String...)
+ * @see BaseServiceImpl#exportJsonLines(org.nutz.dao.Condition, OutputStream, String...)
+ */
+public class ResultSetExporter {
+
+    /**
+     * 输出格式
+     */
+    public enum Format {
+        /**
+         * RFC 4180 CSV, 第一行为列名
+         */
+        CSV,
+        /**
+         * 每行一个 JSON 对象
+         */
+        JSON_LINES
+    }
+
+    /**
+     * 默认每多少行 flush 一次
+     */
+    public static final int DEFAULT_FLUSH_ROWS = 1000;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int STRING = 0;
+
+    private static final int NUMBER = 1;
+
+    private static final int BOOLEAN = 2;
+
+    private static final int TIMESTAMP = 3;
+
+    private static final int DATE = 4;
+
+    private final Format format;
+
+    private final int flushRows;
+
+    /**
+     * @param format    输出格式
+     * @param flushRows 每多少行 flush 一次, 小于等于0时只在结束时 flush
+     */
+    public ResultSetExporter(Format format, int flushRows) {
+        this.format = format;
+        this.flushRows = flushRows;
+    }
+
+    /**
+     * 写出结果集的全部行
+     *
+     * @param rs      结果集
+     * @param columns 要写出的列序号(从1开始)
+     * @param names   输出的列名, 与 columns 一一对应
+     * @param out     输出流
+     * @return 写出的行数
+     */
+    public int export(ResultSet rs, int[] columns, String[] names, OutputStream out) throws SQLException, IOException {
+        if (columns.length != names.length) {
+            throw new IllegalArgumentException("columns and names must have the same length");
+        }
+        ResultSetMetaData meta = rs.getMetaData();
+        int[] kinds = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            kinds[i] = kindOf(meta.getColumnType(columns[i]));
+        }
+        SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        String[] keys = new String[names.length];
+        if (format == Format.CSV) {
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    w.write(',');
+                }
+                this.writeCsv(w, names[i]);
+            }
+            w.write("\r\n");
+        } else {
+            for (int i = 0; i < names.length; i++) {
+                StringWriter sw = new StringWriter();
+                sw.write(i == 0 ? '{' : ',');
+                this.writeJson(sw, names[i]);
+                sw.write(':');
+                keys[i] = sw.toString();
+            }
+        }
+        int rows = 0;
+        while (rs.next()) {
+            for (int i = 0; i < columns.length; i++) {
+                String value;
+                switch (kinds[i]) {
+                    case BOOLEAN:
+                        boolean b = rs.getBoolean(columns[i]);
+                        value = rs.wasNull() ? null : (b ? "true" : "false");
+                        break;
+                    case TIMESTAMP:
+                        Timestamp ts = rs.getTimestamp(columns[i]);
+                        value = ts == null ? null : timestampFormat.format(ts);
+                        break;
+                    case DATE:
+                        java.sql.Date d = rs.getDate(columns[i]);
+                        value = d == null ? null : dateFormat.format(d);
+                        break;
+                    default:
+                        value = rs.getString(columns[i]);
+                }
+                if (format == Format.CSV) {
+                    if (i > 0) {
+                        w.write(',');
+                    }
+                    if (value != null) {
+                        this.writeCsv(w, value);
+                    }
+                } else {
+                    w.write(keys[i]);
+                    if (value == null) {
+                        w.write("null");
+                    } else if ((kinds[i] == NUMBER || kinds[i] == BOOLEAN) && isJsonLiteral(value)) {
+                        w.write(value);
+                    } else {
+                        this.writeJson(w, value);
+                    }
+                }
+            }
+            if (format == Format.CSV) {
+                w.write("\r\n");
+            } else {
+                w.write(columns.length == 0 ? "{}\n" : "}\n");
+            }
+            rows++;
+            if (flushRows > 0 && rows % flushRows == 0) {
+                w.flush();
+            }
+        }
+        w.flush();
+        return rows;
+    }
+
+    private static int kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return NUMBER;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return BOOLEAN;
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return TIMESTAMP;
+            case Types.DATE:
+                return DATE;
+            default:
+                return STRING;
+        }
+    }
+
+    /**
+     * NaN/Infinity 等不是合法的 JSON 数字, 按字符串输出
+     */
+    private static boolean isJsonLiteral(String value) {
+        return !value.isEmpty() && !value.contains("Infinity") && !value.contains("NaN");
+    }
+
+    private void writeCsv(Writer w, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            w.write(value);
+            return;
+        }
+        w.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                w.write(value, start, i + 1 - start);
+                w.write('"');
+                start = i + 1;
+            }
+        }
+        w.write(value, start, value.length() - start);
+        w.write('"');
+    }
+
+    private void writeJson(Writer w, String value) throws IOException {
+        w.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            w.write(value, start, i - start);
+            w.write(escape);
+            start = i + 1;
+        }
+        w.write(value, start, value.length() - start);
+        w.write('"');
+    }
+}
@@ -0,0 +1,207 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.entity.Entity;
+import org.nutz.dao.entity.MappingField;
+import org.nutz.dao.jdbc.Jdbcs;
+import org.nutz.dao.jdbc.ValueAdaptor;
+import org.nutz.lang.Lang;
+import org.nutz.lang.Mirror;
+import org.nutz.lang.born.Borning;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 把 ResultSet 的当前行直接映射为实体/VO, 不经过 Record
+ * <p>
+ * 按 (类, 结果集列名序列) 编译一次: 列与字段的对应关系、列序号、取值方式、
+ * 写入字段的 MethodHandle 都在编译时确定, 之后每行只按列序号取值和赋值。
+ * 列名与字段的数据库列名按忽略大小写匹配, 与 Record.toEntity 一致
+ *
+ * @param <T> 对象类型
+ */
+public class RowMapper<T> {
+
+    /**
+     * 编译结果缓存的最大条数, 超过时清空重新编译
+     */
+    public static final int CACHE_SIZE = 1024;
+
+    private static final ConcurrentMap<String, RowMapper<?>> CACHE = new ConcurrentHashMap<String, RowMapper<?>>();
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Borning<T> borning;
+
+    private final Column[] columns;
+
+    /**
+     * @param labels 小写列名 -> 第一次出现的列序号
+     */
+    private RowMapper(Entity<T> en, Map<String, Integer> labels) {
+        this.borning = Mirror.me(en.getType()).getBorning();
+        List<Column> list = new ArrayList<Column>();
+        for (MappingField mf : en.getMappingFields()) {
+            String label = mf.getColumnName().toLowerCase(Locale.ENGLISH);
+            Integer index = labels.get(label);
+            if (index != null) {
+                list.add(new Column(label, index, mf, setterOf(en.getType(), mf)));
+            }
+        }
+        this.columns = list.toArray(new Column[list.size()]);
+    }
+
+    /**
+     * 获取(必要时编译)结果集对应的映射器
+     *
+     * @param en 目标实体
+     * @param md 结果集元数据
+     * @return 映射器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> of(Entity<T> en, ResultSetMetaData md) throws SQLException {
+        Map<String, Integer> labels = new HashMap<String, Integer>();
+        StringBuilder key = new StringBuilder(en.getType().getName());
+        for (int i = 1; i <= md.getColumnCount(); i++) {
+            String label = md.getColumnLabel(i).toLowerCase(Locale.ENGLISH);
+            if (!labels.containsKey(label)) {
+                labels.put(label, i);
+            }
+            key.append('|').append(label);
+        }
+        // 键由类名和列名序列组成, 对应的一定是同一个实体类型的映射器
+        RowMapper<T> mapper = (RowMapper<T>) CACHE.get(key.toString());
+        if (mapper == null) {
+            if (CACHE.size() >= CACHE_SIZE) {
+                CACHE.clear();
+            }
+            mapper = new RowMapper<T>(en, labels);
+            RowMapper<T> old = (RowMapper<T>) CACHE.putIfAbsent(key.toString(), mapper);
+            if (old != null) {
+                mapper = old;
+            }
+        }
+        return mapper;
+    }
+
+    /**
+     * 映射当前行
+     *
+     * @param rs 结果集
+     * @return 新对象
+     */
+    public T map(ResultSet rs) throws SQLException {
+        T obj = borning.born();
+        for (Column col : columns) {
+            Object v = col.read(rs);
+            if (col.setter == null) {
+                col.field.setValue(obj, v);
+            } else if (v != null || !col.primitive) {
+                try {
+                    col.setter.invokeExact((Object) obj, v);
+                } catch (ClassCastException e) {
+                    col.field.setValue(obj, v);
+                } catch (Throwable e) {
+                    throw Lang.wrapThrow(e);
+                }
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * 优先使用 setter, 其次直接写字段; 取不到时返回null, 由 MappingField.setValue 处理
+     */
+    private static MethodHandle setterOf(Class<?> type, MappingField mf) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Mirror<?> mirror = Mirror.me(type);
+        try {
+            Field f = mirror.getField(mf.getName());
+            if (!f.getType().equals(mf.getTypeClass())) {
+                return null;
+            }
+            MethodHandle mh;
+            try {
+                Method setter = mirror.getSetter(f);
+                setter.setAccessible(true);
+                mh = lookup.unreflect(setter);
+            } catch (NoSuchMethodException e) {
+                if (Modifier.isFinal(f.getModifiers())) {
+                    return null;
+                }
+                f.setAccessible(true);
+                mh = lookup.unreflectSetter(f);
+            }
+            return mh.asType(SETTER_TYPE);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static class Column {
+
+        final String label;
+
+        final int index;
+
+        final MappingField field;
+
+        final ValueAdaptor adaptor;
+
+        final MethodHandle setter;
+
+        final boolean primitive;
+
+        Column(String label, int index, MappingField field, MethodHandle setter) {
+            this.label = label;
+            this.index = index;
+            this.field = field;
+            this.adaptor = field.getAdaptor();
+            this.setter = setter;
+            this.primitive = field.getTypeClass().isPrimitive();
+        }
+
+        /**
+         * 常用的内置 ValueAdaptor 按列序号取值(和按列名取值的结果相同), 其余的仍交给 ValueAdaptor
+         */
+        Object read(ResultSet rs) throws SQLException {
+            if (adaptor == Jdbcs.Adaptor.asString) {
+                return rs.getString(index);
+            }
+            if (adaptor == Jdbcs.Adaptor.asInteger) {
+                int v = rs.getInt(index);
+                return rs.wasNull() ? null : v;
+            }
+            if (adaptor == Jdbcs.Adaptor.asLong) {
+                long v = rs.getLong(index);
+                return rs.wasNull() ? null : v;
+            }
+            if (adaptor == Jdbcs.Adaptor.asDouble) {
+                double v = rs.getDouble(index);
+                return rs.wasNull() ? null : v;
+            }
+            if (adaptor == Jdbcs.Adaptor.asBoolean) {
+                boolean v = rs.getBoolean(index);
+                return rs.wasNull() ? null : v;
+            }
+            if (adaptor == Jdbcs.Adaptor.asBigDecimal) {
+                return rs.getBigDecimal(index);
+            }
+            return adaptor.get(rs, label);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.kuochsiang.nutz.common;
+
+/**
+ * service 方法调用的统计接口
+ * <p>
+ * 容器中存在实现时, 自动配置会为每个 BaseServiceImpl 记录调用耗时、行数和执行的 SQL 语句数。
+ * Micrometer 实现见 {@link org.kuochsiang.nutz.micrometer.MicrometerServiceMetrics}, classpath 中有 micrometer-core 时自动启用
+ */
+public interface ServiceMetrics {
+
+    String FETCH = "fetch";
+
+    String QUERY = "query";
+
+    String COUNT = "count";
+
+    String INSERT = "insert";
+
+    String UPDATE = "update";
+
+    String DELETE = "delete";
+
+    String FETCH_LINKS = "fetchLinks";
+
+    /**
+     * 记录一次 service 方法调用
+     *
+     * @param entityClass 实体类
+     * @param operation   操作类型, 见本接口中的常量
+     * @param nanos       耗时(纳秒)
+     * @param rows        查询返回的行数或写操作影响的行数, 未知时为-1
+     * @param statements  本次调用执行的 SQL 语句数
+     * @param error       调用抛出的异常, 成功时为null
+     */
+    void record(Class<?> entityClass, String operation, long nanos, int rows, int statements, Throwable error);
+}
@@ -0,0 +1,33 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.Condition;
+import org.nutz.dao.entity.Entity;
+
+import java.util.Collection;
+
+/**
+ * 分表策略, 把分片键映射为 Nutz 动态表名 {@link org.nutz.dao.TableName} 的参数
+ * <p>
+ * 实体使用动态表名, 例如按月分表 @Table("t_log_${month}") 或按哈希分表 @Table("t_order_${id}"),
+ * 分片值即 TableName.set(...) 的参数, 例如 "202401" 或 3
+ *
+ * @see BaseServiceImpl#setShardingStrategy(ShardingStrategy)
+ */
+public interface ShardingStrategy {
+
+    /**
+     * @param en       实体
+     * @param shardKey 分片键, 例如日期或用户 id
+     * @return 分片值
+     */
+    Object shard(Entity<?> en, Object shardKey);
+
+    /**
+     * 跨分片查询时需要查询的分片, 可以根据条件裁剪
+     *
+     * @param en  实体
+     * @param cnd 查询条件, 可能为null
+     * @return 分片值
+     */
+    Collection<?> shards(Entity<?> en, Condition cnd);
+}
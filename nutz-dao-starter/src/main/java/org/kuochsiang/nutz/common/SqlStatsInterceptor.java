@@ -0,0 +1,94 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.Dao;
+import org.nutz.dao.DaoException;
+import org.nutz.dao.DaoInterceptor;
+import org.nutz.dao.DaoInterceptorChain;
+import org.nutz.dao.impl.DaoSupport;
+import org.nutz.log.Log;
+import org.nutz.log.Logs;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 统计当前线程执行的 SQL 语句数, 并以 WARN 级别输出超过阈值的慢 SQL(含参数)
+ * <p>
+ * 通过 {@link #install(Dao, long)} 安装, 同一个 Dao 只安装一次
+ */
+public class SqlStatsInterceptor implements DaoInterceptor {
+
+    private static final Log log = Logs.get();
+
+    private static final ThreadLocal<int[]> STATEMENTS = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private static final Map<Dao, SqlStatsInterceptor> INSTALLED = new WeakHashMap<Dao, SqlStatsInterceptor>();
+
+    private volatile long slowNanos;
+
+    private SqlStatsInterceptor(long slowMillis) {
+        setSlowQueryThreshold(slowMillis);
+    }
+
+    /**
+     * 为 Dao 安装拦截器, 已安装时只更新慢 SQL 阈值
+     *
+     * @param dao        Dao, 需为 NutDao
+     * @param slowMillis 慢 SQL 阈值(毫秒), 小于等于0时不输出
+     * @return 拦截器, dao 不支持拦截器时返回null
+     */
+    public static synchronized SqlStatsInterceptor install(Dao dao, long slowMillis) {
+        if (!(dao instanceof DaoSupport)) {
+            return null;
+        }
+        SqlStatsInterceptor interceptor = INSTALLED.get(dao);
+        if (interceptor == null) {
+            interceptor = new SqlStatsInterceptor(slowMillis);
+            ((DaoSupport) dao).addInterceptor(interceptor);
+            INSTALLED.put(dao, interceptor);
+        } else {
+            interceptor.setSlowQueryThreshold(slowMillis);
+        }
+        return interceptor;
+    }
+
+    /**
+     * @return 当前线程累计执行的 SQL 语句数, 取两次调用的差值即为区间内的语句数
+     */
+    public static int statements() {
+        return STATEMENTS.get()[0];
+    }
+
+    /**
+     * 直接通过 JDBC 执行(不经过 Dao 拦截器)的语句, 由调用方计数
+     */
+    static void add(int n) {
+        STATEMENTS.get()[0] += n;
+    }
+
+    public void setSlowQueryThreshold(long slowMillis) {
+        this.slowNanos = slowMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(slowMillis) : 0;
+    }
+
+    public void filter(DaoInterceptorChain chain) throws DaoException {
+        STATEMENTS.get()[0]++;
+        if (slowNanos <= 0) {
+            chain.doChain();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            chain.doChain();
+        } finally {
+            long nanos = System.nanoTime() - start;
+            if (nanos >= slowNanos && log.isWarnEnabled()) {
+                log.warnf("slow sql, time=%sms, sql=%s", TimeUnit.NANOSECONDS.toMillis(nanos), chain.getDaoStatement());
+            }
+        }
+    }
+}
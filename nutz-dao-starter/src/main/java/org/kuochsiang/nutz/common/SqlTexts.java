@@ -0,0 +1,190 @@
+package org.kuochsiang.nutz.common;
+
+import java.util.regex.Pattern;
+
+/**
+ * 对 SQL 文本做简单的结构化处理(不依赖完整的 SQL 解析器)
+ * <p>
+ * 只识别最外层(不在括号、字符串、注释中)的关键字
+ */
+public abstract class SqlTexts {
+
+    /**
+     * 出现在最外层时会改变结果行数的关键字
+     */
+    private static final String[] ROW_KEYWORDS = {"distinct", "group by", "having", "union", "intersect", "except",
+            "minus", "limit", "offset", "fetch", "top", "into", "window", "qualify", "for update"};
+
+    /**
+     * 查询字段中的聚合/窗口函数
+     */
+    private static final Pattern AGGREGATE = Pattern.compile("(?i)\\b(count|sum|avg|min|max|group_concat|string_agg"
+            + "|array_agg|listagg|json_arrayagg|json_objectagg|bit_and|bit_or|bit_xor|stddev\\w*|var_\\w+|variance|over)\\s*\\(");
+
+    /**
+     * 查找最外层关键字的位置
+     *
+     * @param sql     sql语句
+     * @param keyword 关键字, 多个单词之间用一个空格分隔, 例如 "order by"
+     * @param last    是否查找最后一个
+     * @return 位置, 找不到时为-1
+     */
+    public static int indexOfTopLevel(String sql, String keyword, boolean last) {
+        String[] words = keyword.trim().split(" ");
+        int depth = 0;
+        int found = -1;
+        int len = sql.length();
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i, c);
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? len : end;
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && isWordStart(sql, i) && matchWords(sql, i, words) > 0) {
+                if (!last) {
+                    return i;
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 去掉最外层的 ORDER BY 子句(其后的 LIMIT/OFFSET 等也一并去掉)
+     *
+     * @param sql sql语句或条件语句
+     * @return 去掉排序并去掉首尾空白后的语句
+     */
+    public static String stripOrderBy(String sql) {
+        int pos = indexOfTopLevel(sql, "order by", true);
+        return (pos < 0 ? sql : sql.substring(0, pos)).trim();
+    }
+
+    /**
+     * 把查询语句改写为 count 语句
+     * <p>
+     * 去掉最外层的 ORDER BY(其后有 LIMIT/OFFSET/FETCH 时保留);
+     * 没有 DISTINCT/GROUP BY/HAVING/UNION/LIMIT 等影响行数的子句, 且查询字段中没有聚合函数时,
+     * 直接改写为 select count(*) from ..., 去掉全部查询字段; 否则退回到 select count(1) from (sql) t
+     *
+     * @param sql 查询语句
+     * @return count 语句
+     */
+    public static String toCountSql(String sql) {
+        String s = sql.trim();
+        if (s.endsWith(";")) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        int orderBy = indexOfTopLevel(s, "order by", true);
+        if (orderBy >= 0) {
+            String tail = s.substring(orderBy);
+            if (indexOfTopLevel(tail, "limit", false) < 0 && indexOfTopLevel(tail, "offset", false) < 0
+                    && indexOfTopLevel(tail, "fetch", false) < 0) {
+                s = s.substring(0, orderBy).trim();
+            }
+        }
+        String wrapper = "select count(1) count from (" + s + ") t";
+        if (indexOfTopLevel(s, "select", false) != 0) {
+            return wrapper;
+        }
+        int from = indexOfTopLevel(s, "from", false);
+        if (from < 0) {
+            return wrapper;
+        }
+        for (String keyword : ROW_KEYWORDS) {
+            if (indexOfTopLevel(s, keyword, false) >= 0) {
+                return wrapper;
+            }
+        }
+        if (AGGREGATE.matcher(topLevel(s.substring("select".length(), from))).find()) {
+            return wrapper;
+        }
+        return "select count(*) " + s.substring(from);
+    }
+
+    /**
+     * 把括号内和字符串中的内容替换为空格, 只保留最外层的文本
+     */
+    private static String topLevel(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        int depth = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = skipQuoted(sql, i, c);
+                for (; i < end && i < sql.length(); i++) {
+                    sb.append(' ');
+                }
+                if (i < sql.length()) {
+                    sb.append(' ');
+                }
+                continue;
+            }
+            if (c == ')') {
+                depth--;
+            }
+            sb.append(depth > 0 ? ' ' : c);
+            if (c == '(') {
+                depth++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int skipQuoted(String sql, int start, char quote) {
+        for (int i = start + 1; i < sql.length(); i++) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i++;
+                    continue;
+                }
+                return i;
+            }
+        }
+        return sql.length();
+    }
+
+    private static boolean isWordStart(String sql, int i) {
+        return i == 0 || !isWordChar(sql.charAt(i - 1));
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+
+    /**
+     * @return 匹配成功时返回匹配结束位置, 否则返回-1
+     */
+    private static int matchWords(String sql, int start, String[] words) {
+        int i = start;
+        for (int w = 0; w < words.length; w++) {
+            if (w > 0) {
+                int ws = i;
+                while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (i == ws) {
+                    return -1;
+                }
+            }
+            String word = words[w];
+            if (!sql.regionMatches(true, i, word, 0, word.length())) {
+                return -1;
+            }
+            i += word.length();
+        }
+        if (i < sql.length() && isWordChar(sql.charAt(i))) {
+            return -1;
+        }
+        return i;
+    }
+}
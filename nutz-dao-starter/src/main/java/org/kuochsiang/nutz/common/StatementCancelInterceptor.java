@@ -0,0 +1,184 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.Dao;
+import org.nutz.dao.DaoException;
+import org.nutz.dao.DaoInterceptor;
+import org.nutz.dao.DaoInterceptorChain;
+import org.nutz.dao.impl.DaoSupport;
+import org.nutz.dao.util.Daos;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 让后台线程中正在执行的 JDBC 语句可以被取消。Future.cancel(true) 只中断线程, 不会中断阻塞在数据库上的语句
+ * <p>
+ * 只对 {@link Scope#wrap(Callable)} 包装的任务生效: 任务中经过 Dao 创建的语句都按 Scope 的截止时间设置 queryTimeout,
+ * 调用 {@link Scope#cancel()} 时对正在执行的语句调用 Statement.cancel()。
+ * 通过 {@link #install(Dao)} 安装, 同一个 Dao 只安装一次
+ */
+public class StatementCancelInterceptor implements DaoInterceptor {
+
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<Scope>();
+
+    private static final Map<Dao, StatementCancelInterceptor> INSTALLED = new WeakHashMap<Dao, StatementCancelInterceptor>();
+
+    private StatementCancelInterceptor() {
+    }
+
+    /**
+     * 为 Dao 安装拦截器
+     *
+     * @param dao Dao, 需为 NutDao
+     * @return 拦截器, dao 不支持拦截器时返回null
+     */
+    public static synchronized StatementCancelInterceptor install(Dao dao) {
+        if (!(dao instanceof DaoSupport)) {
+            return null;
+        }
+        StatementCancelInterceptor interceptor = INSTALLED.get(dao);
+        if (interceptor == null) {
+            interceptor = new StatementCancelInterceptor();
+            ((DaoSupport) dao).addInterceptor(interceptor);
+            INSTALLED.put(dao, interceptor);
+        }
+        return interceptor;
+    }
+
+    public void filter(DaoInterceptorChain chain) throws DaoException {
+        Scope scope = SCOPE.get();
+        if (scope == null) {
+            chain.doChain();
+            return;
+        }
+        if (scope.cancelled) {
+            throw new DaoException("statement cancelled");
+        }
+        Connection conn = chain.getConnection();
+        List<Statement> created = new ArrayList<Statement>(1);
+        chain.setConnection(scope.track(conn, created));
+        try {
+            chain.doChain();
+        } finally {
+            chain.setConnection(conn);
+            scope.release(created);
+        }
+    }
+
+    /**
+     * 一组可以一起取消的后台任务, 可以被多个线程同时使用
+     */
+    public static class Scope {
+
+        private final long deadline;
+
+        private final List<Statement> statements = new ArrayList<Statement>();
+
+        private volatile boolean cancelled;
+
+        /**
+         * @param timeoutMillis 语句的超时时间(毫秒), 从现在开始计算, 小于等于0时不设置 queryTimeout
+         */
+        public Scope(long timeoutMillis) {
+            this.deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        }
+
+        /**
+         * 包装在其他线程执行的任务, 使任务中的语句归属于这个 Scope
+         */
+        public <V> Callable<V> wrap(final Callable<V> callable) {
+            return new Callable<V>() {
+                public V call() throws Exception {
+                    Scope old = SCOPE.get();
+                    SCOPE.set(Scope.this);
+                    try {
+                        return callable.call();
+                    } finally {
+                        if (old == null) {
+                            SCOPE.remove();
+                        } else {
+                            SCOPE.set(old);
+                        }
+                    }
+                }
+            };
+        }
+
+        /**
+         * 取消正在执行的语句, 之后任务中的新语句直接失败
+         */
+        public void cancel() {
+            cancelled = true;
+            List<Statement> running;
+            synchronized (this) {
+                running = new ArrayList<Statement>(statements);
+            }
+            for (Statement st : running) {
+                cancelQuietly(st);
+            }
+        }
+
+        private synchronized void release(List<Statement> created) {
+            statements.removeAll(created);
+        }
+
+        private void register(Statement st, List<Statement> created) throws SQLException {
+            if (deadline != 0) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                try {
+                    st.setQueryTimeout((int) Math.max(1, Math.min((millis + 999) / 1000, Integer.MAX_VALUE)));
+                } catch (SQLException e) {
+                    // 驱动不支持 queryTimeout 时只依赖 cancel
+                }
+            }
+            created.add(st);
+            synchronized (this) {
+                statements.add(st);
+            }
+            if (cancelled) {
+                Daos.safeClose(st, null);
+                throw new SQLException("statement cancelled");
+            }
+        }
+
+        /**
+         * @param created 记录通过这个连接创建的语句, 语句执行完后由 {@link #release(List)} 移除
+         */
+        private Connection track(final Connection conn, final List<Statement> created) {
+            return (Connection) Proxy.newProxyInstance(Scope.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            Object re;
+                            try {
+                                re = method.invoke(conn, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                            if (re instanceof Statement) {
+                                register((Statement) re, created);
+                            }
+                            return re;
+                        }
+                    });
+        }
+
+        private static void cancelQuietly(Statement st) {
+            try {
+                st.cancel();
+            } catch (SQLException e) {
+                // 语句已经执行完或已关闭
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.Dao;
+import org.nutz.dao.DaoException;
+import org.nutz.dao.DaoInterceptor;
+import org.nutz.dao.DaoInterceptorChain;
+import org.nutz.dao.impl.DaoSupport;
+import org.nutz.dao.sql.DaoStatement;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 经过 Dao 执行的写语句(包括自定义 Sql)执行后, 递增所写表的版本号(见 {@link TableVersions}), 使缓存失效,
+ * 并清空当前范围内 {@link IdentityMap} 中该表的对象
+ * <p>
+ * 表名从语句中解析(INSERT/UPDATE/DELETE/MERGE/REPLACE/TRUNCATE), 无法解析时(例如 DDL 或存储过程)所有表都视为已变化。
+ * 在 Spring 事务中时, 提交或回滚后再递增一次, 防止其他线程在事务期间读到旧数据并放入缓存。
+ * Nutz 的 Trans.exec 没有完成回调, 事务期间其他线程放入缓存的旧数据要到过期或下一次写入才失效。
+ * 通过 {@link #install(Dao)} 安装, 同一个 Dao 只安装一次
+ */
+public class TableChangeInterceptor implements DaoInterceptor {
+
+    private static final Pattern TABLE = Pattern.compile(
+            "^\\s*(?:INSERT\\s+(?:IGNORE\\s+)?INTO|UPDATE|DELETE\\s+FROM|DELETE|MERGE\\s+INTO|REPLACE\\s+INTO|TRUNCATE\\s+TABLE|TRUNCATE)\\s+([\\w.`\"\\[\\]]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Map<Dao, TableChangeInterceptor> INSTALLED = new WeakHashMap<Dao, TableChangeInterceptor>();
+
+    private TableChangeInterceptor() {
+    }
+
+    /**
+     * 为 Dao 安装拦截器
+     *
+     * @param dao Dao, 需为 NutDao
+     * @return 拦截器, dao 不支持拦截器时返回null
+     */
+    public static synchronized TableChangeInterceptor install(Dao dao) {
+        if (!(dao instanceof DaoSupport)) {
+            return null;
+        }
+        TableChangeInterceptor interceptor = INSTALLED.get(dao);
+        if (interceptor == null) {
+            interceptor = new TableChangeInterceptor();
+            ((DaoSupport) dao).addInterceptor(interceptor);
+            INSTALLED.put(dao, interceptor);
+        }
+        return interceptor;
+    }
+
+    public void filter(DaoInterceptorChain chain) throws DaoException {
+        Set<String> tables = null;
+        boolean all = false;
+        for (DaoStatement st : chain.getDaoStatements()) {
+            if (st.isSelect()) {
+                continue;
+            }
+            String table = tableOf(st.toPreparedStatement());
+            if (table == null) {
+                all = true;
+            } else {
+                if (tables == null) {
+                    tables = new LinkedHashSet<String>();
+                }
+                tables.add(table);
+            }
+        }
+        try {
+            chain.doChain();
+        } finally {
+            if (all || tables != null) {
+                changed(tables, all);
+            }
+        }
+    }
+
+    private static void changed(final Set<String> tables, final boolean all) {
+        changedNow(tables, all);
+        IdentityMap map = IdentityMap.peek();
+        if (map != null) {
+            if (all) {
+                map.clearAll();
+            } else {
+                for (String table : tables) {
+                    map.clear(table);
+                }
+            }
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                public void afterCompletion(int status) {
+                    changedNow(tables, all);
+                }
+            });
+        }
+    }
+
+    private static void changedNow(Set<String> tables, boolean all) {
+        if (all) {
+            TableVersions.changedAll();
+            return;
+        }
+        for (String table : tables) {
+            TableVersions.changed(table);
+        }
+    }
+
+    /**
+     * @param sql 写语句
+     * @return 表名, 无法解析时为null
+     */
+    static String tableOf(String sql) {
+        if (sql == null) {
+            return null;
+        }
+        Matcher m = TABLE.matcher(sql);
+        return m.find() ? m.group(1) : null;
+    }
+}
@@ -0,0 +1,83 @@
+package org.kuochsiang.nutz.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 表的全局版本号, 缓存按版本号判断数据是否变化
+ * <p>
+ * 每次写入一个表, 该表和全局的版本号都加1。缓存的结果记录读取前的版本号, 版本号不同即视为失效,
+ * 所以各个 service 的缓存之间不需要互相登记。
+ * 经过 Dao 执行的写语句由 {@link TableChangeInterceptor} 递增版本号,
+ * 直接通过 JDBC 连接或没有安装拦截器的 Dao 写入时需要调用 {@link #changed(String)}
+ */
+public abstract class TableVersions {
+
+    /**
+     * 表名(小写, 不含 schema 和引号) -> 版本号
+     */
+    private static final ConcurrentMap<String, AtomicLong> VERSIONS = new ConcurrentHashMap<String, AtomicLong>();
+
+    private static final AtomicLong GLOBAL = new AtomicLong();
+
+    /**
+     * 表被写入后调用
+     *
+     * @param tableName 表名, 可以带 schema 和引号
+     */
+    public static void changed(String tableName) {
+        if (tableName != null) {
+            counter(tableName).incrementAndGet();
+        }
+        GLOBAL.incrementAndGet();
+    }
+
+    /**
+     * 无法确定所写的表时调用, 所有表的版本号都加1
+     */
+    public static void changedAll() {
+        for (AtomicLong v : VERSIONS.values()) {
+            v.incrementAndGet();
+        }
+        GLOBAL.incrementAndGet();
+    }
+
+    /**
+     * @param tableName 表名
+     * @return 表的当前版本号
+     */
+    public static long version(String tableName) {
+        return counter(tableName).get();
+    }
+
+    /**
+     * @return 全局版本号, 任何表被写入都会变化, 用于涉及的表未知的自定义sql
+     */
+    public static long global() {
+        return GLOBAL.get();
+    }
+
+    /**
+     * @param tableName 表名
+     * @return 小写, 去掉 schema 和引号的表名
+     */
+    static String normalize(String tableName) {
+        String key = tableName.replaceAll("[`\"\\[\\]]", "").toLowerCase();
+        int dot = key.lastIndexOf('.');
+        return dot >= 0 ? key.substring(dot + 1) : key;
+    }
+
+    private static AtomicLong counter(String tableName) {
+        String key = normalize(tableName);
+        AtomicLong v = VERSIONS.get(key);
+        if (v == null) {
+            AtomicLong created = new AtomicLong();
+            v = VERSIONS.putIfAbsent(key, created);
+            if (v == null) {
+                v = created;
+            }
+        }
+        return v;
+    }
+}
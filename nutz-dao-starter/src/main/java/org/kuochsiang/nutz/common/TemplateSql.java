@@ -0,0 +1,60 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.impl.sql.NutSql;
+import org.nutz.dao.impl.sql.SqlLiteral;
+import org.nutz.dao.sql.Sql;
+
+import java.util.Map;
+
+/**
+ * 缓存模板解析结果的 Sql
+ * <p>
+ * 同一个 sql 模板(含 @name 参数 和 $name 变量)只解析一次, 之后创建 Sql 时直接复用解析结果。
+ * 参数通过 params() 绑定, 生成的 PreparedStatement 文本不随参数值变化, 数据库可以复用执行计划
+ */
+public class TemplateSql extends NutSql {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 模板缓存的最大条数
+     */
+    public static final int CACHE_SIZE = 1024;
+
+    private static final TtlCache<String, SqlLiteral> LITERALS = new TtlCache<String, SqlLiteral>(CACHE_SIZE, 0);
+
+    public TemplateSql(String source) {
+        super(source);
+    }
+
+    /**
+     * 创建 Sql 并绑定参数
+     *
+     * @param source sql模板, 参数写作 @name
+     * @param params 参数, 可以是null
+     * @return Sql
+     */
+    public static Sql create(String source, Map<String, Object> params) {
+        Sql sql = new TemplateSql(source);
+        if (params != null) {
+            sql.params().putAll(params);
+        }
+        return sql;
+    }
+
+    protected SqlLiteral literal() {
+        if (placeholder != null) {
+            return super.literal();
+        }
+        SqlLiteral re = LITERALS.get(sourceSql);
+        if (re == null) {
+            re = super.literal();
+            LITERALS.put(sourceSql, re);
+        }
+        return re;
+    }
+
+    public Sql duplicate() {
+        return new TemplateSql(sourceSql).setCallback(callback);
+    }
+}
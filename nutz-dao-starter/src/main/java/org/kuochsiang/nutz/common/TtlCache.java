@@ -0,0 +1,110 @@
+package org.kuochsiang.nutz.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 有容量上限和过期时间的 LRU 缓存, 线程安全
+ *
+ * @param <K> 键
+ * @param <V> 值
+ */
+public class TtlCache<K, V> {
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<K, Item<V>> map;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    /**
+     * @param maxSize   最大条数
+     * @param ttlMillis 过期时间(毫秒), 小于等于0表示不过期
+     */
+    public TtlCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<K, Item<V>>(16, 0.75f, true);
+    }
+
+    /**
+     * @param key 键
+     * @return 未过期的值, 不存在或已过期时为null
+     */
+    public synchronized V get(K key) {
+        Item<V> item = map.get(key);
+        if (item == null) {
+            missCount++;
+            return null;
+        }
+        if (item.expired(System.currentTimeMillis())) {
+            map.remove(key);
+            evictionCount++;
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return item.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        long expireAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+        map.put(key, new Item<V>(value, expireAt));
+        Iterator<Map.Entry<K, Item<V>>> it = map.entrySet().iterator();
+        while (map.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictionCount++;
+        }
+    }
+
+    public synchronized void remove(K key) {
+        map.remove(key);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return 因容量或过期被淘汰的条数(不含主动清除)
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static class Item<V> {
+
+        final V value;
+
+        final long expireAt;
+
+        Item(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        boolean expired(long now) {
+            return now >= expireAt;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.kuochsiang.nutz.micrometer;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.kuochsiang.nutz.common.ServiceMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Micrometer 的 {@link ServiceMetrics}
+ * <p>
+ * 指标(标签 entity 为实体类简单类名, operation 为操作类型):
+ * <ul>
+ * <li>nutz.service: 调用耗时, 额外标签 outcome=success|error</li>
+ * <li>nutz.service.rows: 行数, 额外标签 type=returned(查询)|affected(写操作)</li>
+ * <li>nutz.service.statements: 每次调用执行的 SQL 语句数</li>
+ * </ul>
+ * 耗时的分位数和直方图由构造参数指定, 也可以通过 MeterFilter 配置
+ */
+public class MicrometerServiceMetrics implements ServiceMetrics {
+
+    private final MeterRegistry registry;
+
+    private final boolean percentileHistogram;
+
+    private final double[] percentiles;
+
+    private final ConcurrentMap<String, Meters> meters = new ConcurrentHashMap<String, Meters>();
+
+    public MicrometerServiceMetrics(MeterRegistry registry) {
+        this(registry, false);
+    }
+
+    /**
+     * @param registry            MeterRegistry
+     * @param percentileHistogram 是否发布耗时直方图, 监控系统据此跨实例计算分位数
+     * @param percentiles         客户端计算的耗时分位数, 例如 0.95、0.99
+     */
+    public MicrometerServiceMetrics(MeterRegistry registry, boolean percentileHistogram, double... percentiles) {
+        this.registry = registry;
+        this.percentileHistogram = percentileHistogram;
+        this.percentiles = percentiles;
+    }
+
+    public void record(Class<?> entityClass, String operation, long nanos, int rows, int statements, Throwable error) {
+        Meters m = this.meters(entityClass, operation);
+        if (error == null) {
+            m.success.record(nanos, TimeUnit.NANOSECONDS);
+        } else {
+            m.error.record(nanos, TimeUnit.NANOSECONDS);
+        }
+        if (rows >= 0) {
+            m.rows.record(rows);
+        }
+        m.statements.record(statements);
+    }
+
+    private Meters meters(Class<?> entityClass, String operation) {
+        String key = entityClass.getName() + "|" + operation;
+        Meters m = meters.get(key);
+        if (m == null) {
+            m = new Meters(this, entityClass.getSimpleName(), operation);
+            Meters old = meters.putIfAbsent(key, m);
+            if (old != null) {
+                m = old;
+            }
+        }
+        return m;
+    }
+
+    private static boolean isWrite(String operation) {
+        return INSERT.equals(operation) || UPDATE.equals(operation) || DELETE.equals(operation);
+    }
+
+    private static class Meters {
+
+        private final Timer success;
+
+        private final Timer error;
+
+        private final DistributionSummary rows;
+
+        private final DistributionSummary statements;
+
+        private Meters(MicrometerServiceMetrics owner, String entity, String operation) {
+            MeterRegistry registry = owner.registry;
+            success = Timer.builder("nutz.service")
+                    .tag("entity", entity).tag("operation", operation).tag("outcome", "success")
+                    .publishPercentileHistogram(owner.percentileHistogram)
+                    .publishPercentiles(owner.percentiles)
+                    .register(registry);
+            error = Timer.builder("nutz.service")
+                    .tag("entity", entity).tag("operation", operation).tag("outcome", "error")
+                    .publishPercentileHistogram(owner.percentileHistogram)
+                    .publishPercentiles(owner.percentiles)
+                    .register(registry);
+            rows = DistributionSummary.builder("nutz.service.rows")
+                    .baseUnit("rows")
+                    .tag("entity", entity).tag("operation", operation)
+                    .tag("type", isWrite(operation) ? "affected" : "returned")
+                    .register(registry);
+            statements = DistributionSummary.builder("nutz.service.statements")
+                    .tag("entity", entity).tag("operation", operation)
+                    .register(registry);
+        }
+    }
+}
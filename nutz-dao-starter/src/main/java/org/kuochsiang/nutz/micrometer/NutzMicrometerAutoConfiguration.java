@@ -0,0 +1,38 @@
+package org.kuochsiang.nutz.micrometer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.kuochsiang.nutz.autoconfigure.NutzServiceAutoConfiguration;
+import org.kuochsiang.nutz.autoconfigure.NutzServiceProperties;
+import org.kuochsiang.nutz.common.ServiceMetrics;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * classpath 中有 micrometer-core(starter 中为 optional 依赖, 需自行引入)且容器中存在 MeterRegistry 时注册 {@link MicrometerServiceMetrics},
+ * 由 {@link NutzServiceAutoConfiguration} 为 service 创建统计代理。
+ * nutz.service.metrics.enabled=false 时关闭
+ */
+@Configuration
+@ConditionalOnClass(MeterRegistry.class)
+@ConditionalOnProperty(prefix = "nutz.service.metrics", name = "enabled", matchIfMissing = true)
+@EnableConfigurationProperties(NutzServiceProperties.class)
+@AutoConfigureAfter(name = {
+        "io.micrometer.spring.autoconfigure.MetricsAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration"})
+public class NutzMicrometerAutoConfiguration {
+
+    @Bean
+    @ConditionalOnBean(MeterRegistry.class)
+    @ConditionalOnMissingBean(ServiceMetrics.class)
+    public MicrometerServiceMetrics nutzServiceMetrics(MeterRegistry registry, NutzServiceProperties properties) {
+        NutzServiceProperties.Metrics metrics = properties.getMetrics();
+        return new MicrometerServiceMetrics(registry, metrics.isPercentileHistogram(), metrics.getPercentiles());
+    }
+}
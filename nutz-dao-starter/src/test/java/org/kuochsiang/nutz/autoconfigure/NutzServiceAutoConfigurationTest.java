@@ -0,0 +1,27 @@
+package org.kuochsiang.nutz.autoconfigure;
+
+import org.junit.Test;
+import org.kuochsiang.nutz.common.EntityCacheTest;
+import org.kuochsiang.nutz.common.LruEntityCache;
+import org.kuochsiang.nutz.common.TestDaos;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NutzServiceAutoConfigurationTest {
+
+    @Test
+    public void appliesCacheProperties() {
+        EntityCacheTest.CityService service = new EntityCacheTest.CityService(TestDaos.h2(EntityCacheTest.City.class));
+        NutzServiceProperties properties = new NutzServiceProperties();
+        NutzServiceProperties.Cache cache = new NutzServiceProperties.Cache();
+        cache.setMaxSize(5);
+        properties.getCache().put("City", cache);
+        NutzServiceAutoConfiguration.configure(service, properties);
+        assertTrue(service.getEntityCache() instanceof LruEntityCache);
+
+        cache.setEnabled(false);
+        NutzServiceAutoConfiguration.configure(service, properties);
+        assertNull(service.getEntityCache());
+    }
+}
@@ -0,0 +1,130 @@
+package org.kuochsiang.nutz.autoconfigure;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.kuochsiang.nutz.common.BaseServiceImpl;
+import org.kuochsiang.nutz.common.IBaseService;
+import org.kuochsiang.nutz.common.Person;
+import org.kuochsiang.nutz.common.Pet;
+import org.kuochsiang.nutz.common.ServiceMetrics;
+import org.kuochsiang.nutz.common.TestDaos;
+import org.kuochsiang.nutz.micrometer.MicrometerServiceMetrics;
+import org.nutz.dao.Cnd;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceMetricsTest {
+
+    @Test
+    public void everyServiceMethodHasAnOperation() throws Exception {
+        for (Method m : IBaseService.class.getMethods()) {
+            if (m.getName().equals("dao") || m.getName().equals("stream") || m.getName().equals("onShard")) {
+                assertNull(m.toString(), ServiceMetricsInterceptor.operationOf(m));
+            } else {
+                assertNotNull(m.toString(), ServiceMetricsInterceptor.operationOf(m));
+            }
+        }
+        assertNull(ServiceMetricsInterceptor.operationOf(BaseServiceImpl.class.getMethod("getEntityClass")));
+    }
+
+    @Test
+    public void recordsOnlyServiceMethods() {
+        Recorder recorder = new Recorder();
+        TestDaos.PersonService service = this.postProcess(recorder, true);
+        assertTrue(AopUtils.isCglibProxy(service));
+        service.insertBatch(Arrays.asList(new Person("a", 1), new Person("b", 2), new Person("c", 3)), 100);
+        assertEquals(3, service.count());
+        assertEquals(3, service.query(Cnd.NEW()).size());
+        service.getEntityClass();
+        service.stream(Cnd.NEW()).close();
+        assertEquals(Arrays.asList("insert:3", "count:1", "query:3"), recorder.calls);
+        assertEquals(Arrays.asList(1, 1, 1), recorder.statements);
+    }
+
+    @Test
+    public void disabledMetricsLeaveServiceAsIs() {
+        Recorder recorder = new Recorder();
+        TestDaos.PersonService service = this.postProcess(recorder, false);
+        assertFalse(AopUtils.isAopProxy(service));
+        service.count();
+        assertTrue(recorder.calls.isEmpty());
+    }
+
+    @Test
+    public void publishesPercentilesAndHistogram() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final List<DistributionStatisticConfig> configs = new ArrayList<DistributionStatisticConfig>();
+        registry.config().meterFilter(new MeterFilter() {
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (id.getName().equals("nutz.service")) {
+                    configs.add(config);
+                }
+                return config;
+            }
+        });
+        MicrometerServiceMetrics metrics = new MicrometerServiceMetrics(registry, true, 0.5, 0.99);
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(Person.class, ServiceMetrics.QUERY, i * 1000000L, 1, 1, null);
+        }
+        assertEquals(2, configs.size());
+        assertTrue(configs.get(0).isPercentileHistogram());
+        Timer timer = registry.find("nutz.service").tag("operation", "query").tag("outcome", "success").timer();
+        assertEquals(2, timer.takeSnapshot().percentileValues().length);
+    }
+
+    private TestDaos.PersonService postProcess(final ServiceMetrics metrics, boolean enabled) {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test",
+                Collections.<String, Object>singletonMap("nutz.service.metrics.enabled", String.valueOf(enabled))));
+        ObjectProvider<ServiceMetrics> provider = new ObjectProvider<ServiceMetrics>() {
+            public ServiceMetrics getObject(Object... args) {
+                return metrics;
+            }
+
+            public ServiceMetrics getIfAvailable() {
+                return metrics;
+            }
+
+            public ServiceMetrics getIfUnique() {
+                return metrics;
+            }
+
+            public ServiceMetrics getObject() {
+                return metrics;
+            }
+        };
+        ServiceMetricsPostProcessor processor = NutzServiceAutoConfiguration.nutzServiceMetricsPostProcessor(provider, environment);
+        TestDaos.PersonService service = new TestDaos.PersonService(TestDaos.h2(Person.class, Pet.class));
+        return (TestDaos.PersonService) processor.postProcessAfterInitialization(service, "personService");
+    }
+
+    static class Recorder implements ServiceMetrics {
+
+        private final List<String> calls = new ArrayList<String>();
+
+        private final List<Integer> statements = new ArrayList<Integer>();
+
+        public void record(Class<?> entityClass, String operation, long nanos, int rows, int statements, Throwable error) {
+            calls.add(operation + ":" + rows);
+            this.statements.add(statements);
+        }
+    }
+}
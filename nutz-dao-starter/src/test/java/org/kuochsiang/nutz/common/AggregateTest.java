@@ -0,0 +1,85 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.impl.NutDao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AggregateTest {
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        NutDao dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        List<Person> list = new ArrayList<Person>();
+        list.add(new Person("a", 10));
+        list.add(new Person("a", 20));
+        list.add(new Person("b", 30));
+        list.add(new Person("b", 31));
+        list.add(new Person("b", 50));
+        service.insertBatch(list, 100);
+    }
+
+    @Test
+    public void groupsWithSeveralAggregates() {
+        List<AggRow> rows = service.aggregate(null, new String[]{"name"},
+                Agg.count(), Agg.sum("age"), Agg.avg("age"), Agg.max("age").as("order"));
+        assertEquals(2, rows.size());
+        AggRow b = rows.get(1);
+        assertEquals("b", b.getString("name"));
+        assertEquals(3, b.getLong("count"));
+        assertEquals(111, b.getLong("sumAge"));
+        assertEquals(37.0, b.getDouble("avgAge"), 0.001);
+        assertEquals(50, b.getLong("order"));
+    }
+
+    @Test
+    public void usesOnlyWhere() {
+        List<AggRow> rows = service.aggregate(Cnd.where("age", ">", 15).desc("age"), null,
+                Agg.count(), Agg.countDistinct("name"), Agg.min("age"));
+        assertEquals(1, rows.size());
+        assertEquals(4, rows.get(0).getLong("count"));
+        assertEquals(2, rows.get(0).getLong("countDistinctName"));
+        assertEquals(20, rows.get(0).getLong("minAge"));
+    }
+
+    @Test
+    public void mapsToVo() {
+        List<NameStats> list = service.aggregate(NameStats.class, null, new String[]{"name"},
+                Agg.count().as("total"), Agg.sum("age"));
+        assertEquals(2, list.size());
+        assertEquals("a", list.get(0).name);
+        assertEquals(2, list.get(0).total);
+        assertEquals(30, list.get(0).sumAge);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsafeAlias() {
+        Agg.count().as("n FROM t_person; --");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownField() {
+        service.aggregate(null, null, Agg.sum("salary"));
+    }
+
+    public static class NameStats {
+
+        @Column
+        private String name;
+
+        @Column
+        private int total;
+
+        @Column
+        private long sumAge;
+    }
+}
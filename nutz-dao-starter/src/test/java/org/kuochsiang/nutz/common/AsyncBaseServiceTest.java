@@ -0,0 +1,178 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncBaseServiceTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 100);
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void mirrorsEveryServiceMethod() throws Exception {
+        for (Method m : IBaseService.class.getMethods()) {
+            if (m.getName().equals("dao") || m.getName().equals("stream")) {
+                continue;
+            }
+            Method async = IAsyncBaseService.class.getMethod(m.getName(), m.getParameterTypes());
+            assertEquals(m.toString(), CompletableFuture.class, async.getReturnType());
+        }
+    }
+
+    @Test
+    public void runsServiceMethods() throws Exception {
+        AsyncBaseServiceImpl<Person> async = new AsyncBaseServiceImpl<Person>(service, 2);
+        Person p = async.insert(new Person("a", 1)).get(5, TimeUnit.SECONDS);
+        assertEquals(6, p.getId());
+        assertEquals(6, async.count(Cnd.NEW()).get(5, TimeUnit.SECONDS).intValue());
+        assertEquals("p0", async.fetch(1L).get(5, TimeUnit.SECONDS).getName());
+        assertEquals(2, async.deleteBatch(Arrays.asList(1L, 2L), 10).get(5, TimeUnit.SECONDS).intValue());
+        async.delete(new Long[]{3L}).get(5, TimeUnit.SECONDS);
+        assertEquals(3, dao.count(Person.class));
+    }
+
+    @Test
+    public void limitsConcurrencyWithoutHoldingThreads() throws Exception {
+        AsyncBaseServiceImpl<Person> async = new AsyncBaseServiceImpl<Person>(service, executor, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Integer>> list = new ArrayList<CompletableFuture<Integer>>();
+        for (int i = 0; i < 6; i++) {
+            list.add(async.submit(new Function<IBaseService<Person>, Integer>() {
+                public Integer apply(IBaseService<Person> s) {
+                    int n = running.incrementAndGet();
+                    synchronized (max) {
+                        max.set(Math.max(max.get(), n));
+                    }
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return s.count();
+                }
+            }));
+        }
+        assertEquals(0, async.availablePermits());
+        assertEquals(4, async.pendingTasks());
+        release.countDown();
+        for (CompletableFuture<Integer> f : list) {
+            assertEquals(5, f.get(5, TimeUnit.SECONDS).intValue());
+        }
+        assertTrue(max.get() <= 2);
+        // future 完成后许可在 finally 中归还
+        for (int i = 0; i < 100 && async.availablePermits() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, async.availablePermits());
+    }
+
+    @Test
+    public void cancelledPendingTaskIsSkipped() throws Exception {
+        AsyncBaseServiceImpl<Person> async = new AsyncBaseServiceImpl<Person>(service, executor, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> first = async.submit(new Function<IBaseService<Person>, Integer>() {
+            public Integer apply(IBaseService<Person> s) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 1;
+            }
+        });
+        final AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<Integer> second = async.submit(new Function<IBaseService<Person>, Integer>() {
+            public Integer apply(IBaseService<Person> s) {
+                ran.set(true);
+                return 2;
+            }
+        });
+        second.cancel(false);
+        release.countDown();
+        assertEquals(1, first.get(5, TimeUnit.SECONDS).intValue());
+        assertEquals(3, async.count(Cnd.where("age", "<", 23)).get(5, TimeUnit.SECONDS).intValue());
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void rejectedTaskFailsItsFuture() throws Exception {
+        executor.shutdown();
+        AsyncBaseServiceImpl<Person> async = new AsyncBaseServiceImpl<Person>(service, executor, 2);
+        try {
+            async.count().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(2, async.availablePermits());
+    }
+
+    @Test
+    public void joinsCallerTransaction() {
+        final AsyncBaseServiceImpl<Person> async = new AsyncBaseServiceImpl<Person>(service, executor, 2);
+        final Thread caller = Thread.currentThread();
+        try {
+            Trans.exec(new Atom() {
+                public void run() {
+                    CompletableFuture<Thread> f = async.submit(new Function<IBaseService<Person>, Thread>() {
+                        public Thread apply(IBaseService<Person> s) {
+                            s.delete(1L);
+                            return Thread.currentThread();
+                        }
+                    });
+                    assertSame(caller, f.join());
+                    throw new IllegalStateException("rollback");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // 回滚
+        }
+        assertEquals(5, dao.count(Person.class));
+    }
+}
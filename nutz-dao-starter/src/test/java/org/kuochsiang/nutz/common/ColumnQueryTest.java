@@ -0,0 +1,68 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ColumnQueryTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 100);
+    }
+
+    @Test
+    public void readsPrimitiveColumns() {
+        assertArrayEquals(new long[]{1, 2, 3}, service.queryLongColumn("id", Cnd.where("age", "<", 23).asc("id")).toLongArray());
+        assertArrayEquals(new int[]{24, 23}, service.queryIntColumn("age", Cnd.where("age", ">", 22).desc("age")).toIntArray());
+        assertEquals(Arrays.asList("p0", "p1"), service.queryStringColumn("name", Cnd.where("id", "<=", 2).asc("id")));
+    }
+
+    @Test
+    public void skipsNullNumbersButKeepsNullStrings() {
+        dao.execute(Sqls.create("ALTER TABLE t_person ALTER COLUMN age SET NULL"));
+        dao.execute(Sqls.create("UPDATE t_person SET age = NULL, name = NULL WHERE id = 1"));
+        assertEquals(4, service.queryIntColumn("age", null).size());
+        assertEquals(5, service.queryStringColumn("name", null).size());
+    }
+
+    @Test
+    public void streamsToCallbacks() {
+        final int[] sum = new int[1];
+        assertEquals(5, service.queryIntColumn("age", null, new IntConsumer() {
+            public void accept(int value) {
+                sum[0] += value;
+            }
+        }));
+        assertEquals(110, sum[0]);
+        final List<String> names = new ArrayList<String>();
+        assertEquals(2, service.queryStringColumn("name", Cnd.where("age", ">=", 23).asc("id"), new Consumer<String>() {
+            public void accept(String value) {
+                names.add(value);
+            }
+        }));
+        assertEquals(Arrays.asList("p3", "p4"), names);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownField() {
+        service.queryLongColumn("salary", null);
+    }
+}
@@ -0,0 +1,95 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.DaoException;
+import org.nutz.dao.QueryResult;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.pager.Pager;
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentPagerTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class);
+        dao.execute(Sqls.create("CREATE ALIAS SLEEP_MS FOR \"java.lang.Thread.sleep\""));
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(25), 0);
+        executor = Executors.newFixedThreadPool(2);
+        service.setPagerExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void runsPageAndCountConcurrently() {
+        Pager pager = new Pager(2, 10);
+        QueryResult qr = service.queryPager(pager, Cnd.where("age", ">=", 25).asc("id"));
+        assertEquals(20, pager.getRecordCount());
+        assertEquals(10, qr.getList().size());
+        assertEquals("p15", ((Person) qr.getList().get(0)).getName());
+    }
+
+    @Test
+    public void timesOutAndCancelsRunningStatements() throws Exception {
+        service.setPagerTimeout(300);
+        long start = System.nanoTime();
+        try {
+            service.queryPager(new Pager(1, 10), Cnd.wrap("SLEEP_MS(5000) IS NULL"));
+            fail();
+        } catch (DaoException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        // 被取消的语句释放了工作线程
+        long free = System.nanoTime();
+        executor.submit(new Callable<Integer>() {
+            public Integer call() {
+                return service.count();
+            }
+        }).get(2, TimeUnit.SECONDS);
+        executor.submit(new Callable<Integer>() {
+            public Integer call() {
+                return service.count();
+            }
+        }).get(2, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - free) < 2000);
+    }
+
+    @Test
+    public void runsSequentiallyInTransaction() {
+        final Pager pager = new Pager(1, 5);
+        final QueryResult[] qr = new QueryResult[1];
+        Trans.exec(new Atom() {
+            public void run() {
+                service.insert(new Person("tx", 1));
+                qr[0] = service.queryPager(pager, Cnd.where("name", "=", "tx"));
+            }
+        });
+        assertEquals(1, pager.getRecordCount());
+        assertEquals(1, qr[0].getList().size());
+    }
+}
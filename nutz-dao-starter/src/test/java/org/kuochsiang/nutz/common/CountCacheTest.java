@@ -0,0 +1,115 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.ConnCallback;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.pager.Pager;
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CountCacheTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 0);
+        service.setCountCache(100, 60000);
+    }
+
+    @Test
+    public void servesRepeatedCountsFromCache() {
+        assertEquals(5, service.count());
+        assertEquals(3, service.count(Cnd.where("age", ">", 21)));
+        insertBehindDao("hidden");
+        assertEquals(5, service.count());
+        assertEquals(3, service.count(Cnd.where("age", ">", 21)));
+        assertEquals(3, service.count(Cnd.where("age", ">", 21).desc("id")));
+    }
+
+    @Test
+    public void writesThroughAnyServiceInvalidate() {
+        assertEquals(5, service.count());
+        insertBehindDao("hidden");
+        new TestDaos.PersonService(dao).insert(new Person("other", 1));
+        assertEquals(7, service.count());
+    }
+
+    @Test
+    public void customSqlWritesInvalidate() {
+        assertEquals(5, service.count());
+        dao.execute(Sqls.create("DELETE FROM t_person WHERE age < 22"));
+        assertEquals(3, service.count());
+    }
+
+    @Test
+    public void writesToOtherTablesKeepEntries() {
+        assertEquals(5, service.count());
+        insertBehindDao("hidden");
+        dao.insert(new Pet(1, "cat"));
+        assertEquals(5, service.count());
+    }
+
+    @Test
+    public void customSqlCountsInvalidateOnAnyWrite() {
+        Pager pager = new Pager(1, 2);
+        service.getPagerByList("select * from t_person", pager);
+        assertEquals(5, pager.getRecordCount());
+        insertBehindDao("hidden");
+        service.getPagerByList("select * from t_person", pager);
+        assertEquals(5, pager.getRecordCount());
+        dao.insert(new Pet(1, "cat"));
+        service.getPagerByList("select * from t_person", pager);
+        assertEquals(6, pager.getRecordCount());
+    }
+
+    @Test
+    public void bypassesCacheInTransaction() {
+        assertEquals(5, service.count());
+        insertBehindDao("hidden");
+        final int[] n = new int[1];
+        Trans.exec(new Atom() {
+            public void run() {
+                n[0] = service.count();
+            }
+        });
+        assertEquals(6, n[0]);
+    }
+
+    @Test
+    public void approximateCountReadsStatistics() {
+        service.setCountCache(0, 0);
+        service.setApproximateCount(true);
+        assertTrue(service.count() >= 0);
+        assertEquals(3, service.count(Cnd.where("age", ">", 21)));
+    }
+
+    /**
+     * 不经过 Dao 直接写入, 缓存不会失效
+     */
+    private void insertBehindDao(final String name) {
+        dao.run(new ConnCallback() {
+            public void invoke(Connection conn) throws Exception {
+                Statement st = conn.createStatement();
+                try {
+                    st.executeUpdate("INSERT INTO t_person(name, age) VALUES('" + name + "', 50)");
+                } finally {
+                    st.close();
+                }
+            }
+        });
+    }
+}
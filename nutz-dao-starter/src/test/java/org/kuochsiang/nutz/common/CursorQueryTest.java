@@ -0,0 +1,98 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.lang.Each;
+import org.nutz.lang.ExitLoop;
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CursorQueryTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 0);
+    }
+
+    @Test
+    public void eachVisitsEveryRow() {
+        final List<String> names = new ArrayList<String>();
+        int n = service.each(Cnd.where("age", ">", 21).asc("id"), new Each<Person>() {
+            public void invoke(int index, Person ele, int length) {
+                names.add(ele.getName());
+            }
+        });
+        assertEquals(3, n);
+        assertEquals("[p2, p3, p4]", names.toString());
+    }
+
+    @Test
+    public void eachStopsOnExitLoop() {
+        int n = service.each(null, new Each<Person>() {
+            public void invoke(int index, Person ele, int length) {
+                if (index == 1) {
+                    throw new ExitLoop();
+                }
+            }
+        });
+        assertEquals(2, n);
+    }
+
+    @Test
+    public void eachReusesInstance() {
+        final List<Person> rows = new ArrayList<Person>();
+        service.each(Cnd.orderBy().asc("id"), new Each<Person>() {
+            public void invoke(int index, Person ele, int length) {
+                rows.add(ele);
+            }
+        }, true);
+        assertSame(rows.get(0), rows.get(4));
+        assertEquals("p4", rows.get(0).getName());
+    }
+
+    @Test
+    public void streamReadsAllRows() {
+        Stream<Person> stream = service.stream(Cnd.orderBy().desc("id"));
+        try {
+            assertEquals("p4,p3,p2,p1,p0", stream.map(Person::getName).collect(Collectors.joining(",")));
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void streamJoinsNutzTransaction() {
+        final long[] count = new long[1];
+        Trans.exec(new Atom() {
+            public void run() {
+                service.insert(new Person("uncommitted", 99));
+                Stream<Person> stream = service.stream(Cnd.where("name", "=", "uncommitted"));
+                try {
+                    count[0] = stream.count();
+                } finally {
+                    stream.close();
+                }
+                // 事务的连接没有被关闭, 后续语句仍可使用
+                service.insert(new Person("uncommitted", 98));
+            }
+        });
+        assertEquals(1, count[0]);
+        assertEquals(2, service.count(Cnd.where("name", "=", "uncommitted")));
+    }
+}
@@ -0,0 +1,109 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.PK;
+import org.nutz.dao.entity.annotation.Table;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DeleteBatchTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class, Score.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(10), 100);
+    }
+
+    @Test
+    public void deletesByIdInChunks() {
+        assertEquals(5, service.deleteBatch(Arrays.asList(1L, 2L, 3L, 4L, 5L, 99L), 2));
+        assertEquals(5, dao.count(Person.class));
+        assertEquals(1, service.deleteBatch(Arrays.asList(6L), 2, true));
+        assertEquals(0, service.deleteBatch(new ArrayList<Long>(), 2));
+        service.delete(new Long[]{7L, 8L});
+        assertEquals(2, dao.count(Person.class));
+    }
+
+    @Test
+    public void chunksShareOneTransaction() {
+        try {
+            Trans.exec(new Atom() {
+                public void run() {
+                    service.deleteBatch(Arrays.asList(1L, 2L, 3L), 1);
+                    throw new IllegalStateException("rollback");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // 回滚
+        }
+        assertEquals(10, dao.count(Person.class));
+    }
+
+    @Test
+    public void deletesObjectsByPk() {
+        List<Person> list = dao.query(Person.class, Cnd.where("age", "<", 23));
+        assertEquals(3, service.deleteAll(list));
+        assertEquals(7, dao.count(Person.class));
+    }
+
+    @Test
+    public void deletesObjectsByCompositePk() {
+        ScoreService scores = new ScoreService(dao);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                dao.insert(new Score(i, j));
+            }
+        }
+        assertEquals(2, scores.deleteAll(Arrays.asList(new Score(0, 1), new Score(2, 0))));
+        assertEquals(7, dao.count(Score.class));
+        assertEquals(0, dao.count(Score.class, Cnd.where("student", "=", 0).and("course", "=", 1)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compositePkCannotDeleteByIds() {
+        new ScoreService(dao).deleteBatch(Arrays.asList(1, 2), 10);
+    }
+
+    public static class ScoreService extends BaseServiceImpl<Score> {
+
+        public ScoreService(NutDao dao) {
+            super(dao);
+        }
+    }
+
+    @Table("t_score")
+    @PK({"student", "course"})
+    public static class Score {
+
+        @Column
+        private int student;
+
+        @Column
+        private int course;
+
+        public Score() {
+        }
+
+        public Score(int student, int course) {
+            this.student = student;
+            this.course = course;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Chain;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.ConnCallback;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Id;
+import org.nutz.dao.entity.annotation.Table;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class EntityCacheTest {
+
+    private NutDao dao;
+
+    private CityService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(City.class);
+        service = new CityService(dao);
+        service.insert(new City("Paris"));
+        service.insert(new City("Rome"));
+    }
+
+    @Test
+    public void cachesFetchById() {
+        assertEquals("Paris", service.fetch(1L).getName());
+        renameBehindDao(1, "Lyon");
+        assertEquals("Paris", service.fetch(1L).getName());
+        assertEquals(1, service.getEntityCache().getHitCount());
+    }
+
+    @Test
+    public void returnsCopies() {
+        City a = service.fetch(1L);
+        a.setName("changed");
+        City b = service.fetch(1L);
+        assertNotSame(a, b);
+        assertEquals("Paris", b.getName());
+    }
+
+    @Test
+    public void anyWriteToTheTableClearsTheCache() {
+        service.fetch(1L);
+        service.fetch(2L);
+        renameBehindDao(1, "Lyon");
+        new CityService(dao).update(Chain.make("name", "Milan"), Cnd.where("id", "=", 2));
+        assertEquals("Lyon", service.fetch(1L).getName());
+        assertEquals("Milan", service.fetch(2L).getName());
+    }
+
+    @Test
+    public void customSqlDeleteClearsTheCache() {
+        service.fetch(1L);
+        dao.execute(Sqls.create("DELETE FROM t_city WHERE id = 1"));
+        assertNull(service.fetch(1L));
+    }
+
+    @Test
+    public void bypassedInTransaction() {
+        service.fetch(1L);
+        renameBehindDao(1, "Lyon");
+        final String[] name = new String[1];
+        Trans.exec(new Atom() {
+            public void run() {
+                name[0] = service.fetch(1L).getName();
+            }
+        });
+        assertEquals("Lyon", name[0]);
+    }
+
+    @Test
+    public void explicitCacheOverridesAnnotation() {
+        service.setEntityCache(null);
+        service.fetch(1L);
+        renameBehindDao(1, "Lyon");
+        assertEquals("Lyon", service.fetch(1L).getName());
+    }
+
+    private void renameBehindDao(final long id, final String name) {
+        dao.run(new ConnCallback() {
+            public void invoke(Connection conn) throws Exception {
+                Statement st = conn.createStatement();
+                try {
+                    st.executeUpdate("UPDATE t_city SET name = '" + name + "' WHERE id = " + id);
+                } finally {
+                    st.close();
+                }
+            }
+        });
+    }
+
+    public static class CityService extends BaseServiceImpl<City> {
+
+        public CityService(NutDao dao) {
+            super(dao);
+        }
+    }
+
+    @Table("t_city")
+    @FetchCache(maxSize = 10, ttl = 60000)
+    public static class City {
+
+        @Id
+        private long id;
+
+        @Column
+        private String name;
+
+        public City() {
+        }
+
+        public City(String name) {
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
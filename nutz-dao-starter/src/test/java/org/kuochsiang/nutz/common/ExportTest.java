@@ -0,0 +1,67 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExportTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(Arrays.asList(new Person("a,\"b\"", 1), new Person("line\r\nbreak", 2),
+                new Person("tab\t\\ \u0001 é", 3), new Person("plain", 4)), 100);
+        dao.execute(Sqls.create("ALTER TABLE t_person ALTER COLUMN name SET NULL"));
+        dao.execute(Sqls.create("UPDATE t_person SET name = NULL WHERE id = 4"));
+    }
+
+    @Test
+    public void escapesCsv() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(4, service.exportCsv(Cnd.orderBy().asc("id"), out, "name", "age"));
+        assertEquals("name,age\r\n"
+                + "\"a,\"\"b\"\"\",1\r\n"
+                + "\"line\r\nbreak\",2\r\n"
+                + "tab\t\\ \u0001 é,3\r\n"
+                + ",4\r\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void escapesJsonLines() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(4, service.exportJsonLines(Cnd.orderBy().asc("id"), out, "name", "age"));
+        assertEquals("{\"name\":\"a,\\\"b\\\"\",\"age\":1}\n"
+                + "{\"name\":\"line\\r\\nbreak\",\"age\":2}\n"
+                + "{\"name\":\"tab\\t\\\\ \\u0001 é\",\"age\":3}\n"
+                + "{\"name\":null,\"age\":4}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void exportsCustomSqlByLabel() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int rows = service.exportJsonLines("SELECT age * 2 AS \"dbl\", name AS \"who\" FROM t_person WHERE age <= @max ORDER BY id",
+                Collections.<String, Object>singletonMap("max", 2), out, "who", "DBL");
+        assertEquals(2, rows);
+        assertEquals("{\"who\":\"a,\\\"b\\\"\",\"DBL\":2}\n{\"who\":\"line\\r\\nbreak\",\"DBL\":4}\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownField() {
+        service.exportCsv(null, new ByteArrayOutputStream(), "salary");
+    }
+}
@@ -0,0 +1,86 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.ConnCallback;
+import org.nutz.dao.impl.NutDao;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FetchAllTest {
+
+    private NutDao dao;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class, EntityCacheTest.City.class);
+    }
+
+    @Test
+    public void keepsCallerOrderAndSkipsMissing() {
+        TestDaos.PersonService service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 100);
+        List<Person> list = service.fetchAll(Arrays.<Object>asList(4, 99L, 1L, "2", 4L, null));
+        assertEquals(Arrays.asList(4L, 1L, 2L), ids(list));
+        assertTrue(service.fetchAll(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void mapIsKeyedByCallerIds() {
+        TestDaos.PersonService service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(3), 100);
+        Map<Integer, Person> map = service.fetchAllMap(Arrays.asList(3, 7, 1));
+        assertEquals(Arrays.asList(3, 1), new ArrayList<Integer>(map.keySet()));
+        assertEquals("p2", map.get(3).getName());
+    }
+
+    @Test
+    public void projectsFieldsAndKeepsPk() {
+        TestDaos.PersonService service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(2), 100);
+        List<Person> list = service.fetchAll(Arrays.asList(2L, 1L), "^age$");
+        assertEquals(Arrays.asList(2L, 1L), ids(list));
+        assertNull(list.get(0).getName());
+        assertEquals(21, list.get(0).getAge());
+    }
+
+    @Test
+    public void readsThroughEntityCache() {
+        EntityCacheTest.CityService service = new EntityCacheTest.CityService(dao);
+        service.insert(new EntityCacheTest.City("Paris"));
+        service.insert(new EntityCacheTest.City("Rome"));
+        service.fetch(1L);
+        service.fetchAll(Arrays.asList(1L, 2L));
+        assertEquals(1, service.getEntityCache().getHitCount());
+        dao.run(new ConnCallback() {
+            public void invoke(Connection conn) throws Exception {
+                Statement st = conn.createStatement();
+                try {
+                    st.executeUpdate("UPDATE t_city SET name = 'Lyon'");
+                } finally {
+                    st.close();
+                }
+            }
+        });
+        assertEquals("Paris", service.fetchAll(Arrays.asList(1L, 2L)).get(0).getName());
+        assertEquals(3, service.getEntityCache().getHitCount());
+    }
+
+    private static List<Long> ids(List<Person> list) {
+        List<Long> re = new ArrayList<Long>();
+        for (Person p : list) {
+            re.add(p.getId());
+        }
+        return re;
+    }
+}
@@ -0,0 +1,82 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Chain;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class IdentityMapTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.setIdentityMap(true);
+        service.insertBatch(InsertBatchTest.people(2), 100);
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void sameInstanceWithinScope() {
+        IdentityMap.run(new Callable<Object>() {
+            public Object call() {
+                Person p = service.fetch(1L);
+                assertSame(p, service.fetch(1L));
+                assertSame(p, service.fetch(Cnd.where("name", "=", "p0")));
+                assertSame(p, service.fetch(Cnd.where("name", "=", "p0")));
+                assertEquals(2, IdentityMap.current().getHits());
+                return null;
+            }
+        });
+        assertNotSame(service.fetch(1L), service.fetch(1L));
+    }
+
+    @Test
+    public void writesThroughDaoClearTheTable() {
+        IdentityMap.run(new Callable<Object>() {
+            public Object call() {
+                Person p = service.fetch(1L);
+                new TestDaos.PersonService(dao).update(Chain.make("age", 30), Cnd.where("id", "=", 1));
+                assertEquals(30, service.fetch(1L).getAge());
+                Person q = service.fetch(1L);
+                dao.execute(Sqls.create("UPDATE t_person SET age = 40 WHERE id = 1"));
+                assertNotSame(q, service.fetch(1L));
+                assertEquals(40, service.fetch(1L).getAge());
+                assertNotSame(p, q);
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void boundToTransactionUntilCompletion() {
+        TransactionSynchronizationManager.initSynchronization();
+        Person p = service.fetch(2L);
+        assertSame(p, service.fetch(2L));
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        assertNotSame(p, service.fetch(2L));
+    }
+}
@@ -0,0 +1,75 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class InsertBatchTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+    }
+
+    @Test
+    public void insertsInChunksAndBackfillsKeys() {
+        List<Person> list = people(5);
+        assertArrayEquals(new int[]{2, 2, 1}, service.insertBatch(list, 2));
+        assertEquals(5, service.count());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(i + 1, list.get(i).getId());
+        }
+    }
+
+    @Test
+    public void rollsBackAllChunksOnFailure() {
+        List<Person> list = people(4);
+        list.get(3).setName(null);
+        dao.execute(Sqls.create("ALTER TABLE t_person ALTER COLUMN name SET NOT NULL"));
+        try {
+            service.insertBatch(list, 2);
+            fail();
+        } catch (RuntimeException e) {
+            // 最后一批失败
+        }
+        assertEquals(0, service.count());
+    }
+
+    @Test
+    public void insertsLinksWithEachChunk() {
+        List<Person> list = people(3);
+        for (Person p : list) {
+            p.setPets(Arrays.asList(new Pet(0, p.getName() + "-a"), new Pet(0, p.getName() + "-b")));
+        }
+        assertArrayEquals(new int[]{2, 1}, service.insertWithBatch(list, "pets", 2));
+        assertEquals(6, dao.count(Pet.class));
+        assertEquals(list.get(2).getId(), list.get(2).getPets().get(1).getPersonId());
+    }
+
+    @Test
+    public void emptyListInsertsNothing() {
+        assertEquals(0, service.insertBatch(new ArrayList<Person>(), 10).length);
+    }
+
+    static List<Person> people(int n) {
+        List<Person> list = new ArrayList<Person>();
+        for (int i = 0; i < n; i++) {
+            list.add(new Person("p" + i, 20 + i));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,77 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeysetPageTest {
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        service = new TestDaos.PersonService(TestDaos.h2(Person.class));
+        List<Person> list = InsertBatchTest.people(7);
+        list.get(1).setAge(30);
+        list.get(4).setAge(30);
+        service.insertBatch(list, 0);
+    }
+
+    @Test
+    public void walksAllPagesByPrimaryKey() {
+        List<Long> ids = new ArrayList<Long>();
+        String token = null;
+        int pages = 0;
+        do {
+            KeysetPage<Person> page = service.queryKeyset(null, token, 3);
+            for (Person p : page.getList()) {
+                ids.add(p.getId());
+            }
+            token = page.getNextToken();
+            pages++;
+        } while (token != null);
+        assertEquals(3, pages);
+        assertEquals("[1, 2, 3, 4, 5, 6, 7]", ids.toString());
+    }
+
+    @Test
+    public void lastFullPageHasNoNext() {
+        KeysetPage<Person> page = service.queryKeyset(Cnd.where("age", "<", 27), null, 5);
+        assertEquals(5, page.getList().size());
+        assertFalse(page.hasNext());
+        assertNull(page.getNextToken());
+    }
+
+    @Test
+    public void compositeKeyDescending() {
+        KeysetPage<Person> first = service.queryKeyset(null, null, 3, true, "age", "id");
+        assertTrue(first.hasNext());
+        assertEquals("p4,p1,p6", names(first.getList()));
+        KeysetPage<Person> second = service.queryKeyset(null, first.getNextToken(), 3, true, "age", "id");
+        assertEquals("p5,p3,p2", names(second.getList()));
+    }
+
+    @Test
+    public void keepsConditionAcrossPages() {
+        KeysetPage<Person> first = service.queryKeyset(Cnd.where("age", "!=", 30), null, 2);
+        KeysetPage<Person> second = service.queryKeyset(Cnd.where("age", "!=", 30), first.getNextToken(), 2);
+        assertEquals("p0,p2", names(first.getList()));
+        assertEquals("p3,p5", names(second.getList()));
+    }
+
+    static String names(List<Person> list) {
+        StringBuilder sb = new StringBuilder();
+        for (Person p : list) {
+            sb.append(sb.length() > 0 ? "," : "").append(p.getName());
+        }
+        return sb.toString();
+    }
+}
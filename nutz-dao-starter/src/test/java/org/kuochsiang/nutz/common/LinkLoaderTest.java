@@ -0,0 +1,169 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.DaoException;
+import org.nutz.dao.DaoInterceptor;
+import org.nutz.dao.DaoInterceptorChain;
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Id;
+import org.nutz.dao.entity.annotation.Many;
+import org.nutz.dao.entity.annotation.One;
+import org.nutz.dao.entity.annotation.Table;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.pager.Pager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinkLoaderTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    private final AtomicInteger selects = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(3), 100);
+        dao.insert(Arrays.asList(new Pet(1, "b"), new Pet(1, "a"), new Pet(2, "c"), new Pet(1, "c")));
+        dao.addInterceptor(new DaoInterceptor() {
+            public void filter(DaoInterceptorChain chain) throws DaoException {
+                if (chain.getDaoStatement().isSelect()) {
+                    selects.incrementAndGet();
+                }
+                chain.doChain();
+            }
+        });
+    }
+
+    @Test
+    public void loadsManyWithOneQueryPerLink() {
+        List<Person> list = service.query(Cnd.orderBy().asc("id"), "pets");
+        assertEquals(2, selects.get());
+        assertEquals(3, list.get(0).getPets().size());
+        assertEquals(1, list.get(1).getPets().size());
+        assertTrue(list.get(2).getPets().isEmpty());
+    }
+
+    @Test
+    public void chunksTheKeys() {
+        service.setLinkBatchSize(2);
+        List<Person> list = service.query(Cnd.orderBy().asc("id"), "pets");
+        assertEquals(3, selects.get());
+        assertEquals(3, list.get(0).getPets().size());
+    }
+
+    @Test
+    public void appliesLinkConditionAndOrder() {
+        List<Person> list = dao.query(Person.class, Cnd.orderBy().asc("id"));
+        service.fetchLinksBatch(list, "pets", Cnd.where("name", "!=", "c").desc("name"));
+        assertEquals(2, list.get(0).getPets().size());
+        assertEquals("b", list.get(0).getPets().get(0).getName());
+        assertEquals("a", list.get(0).getPets().get(1).getName());
+        assertTrue(list.get(1).getPets().isEmpty());
+    }
+
+    @Test
+    public void pagedLinkConditionFallsBackPerObject() {
+        List<Person> list = dao.query(Person.class, Cnd.orderBy().asc("id"));
+        selects.set(0);
+        Cnd cnd = Cnd.NEW();
+        cnd.asc("name");
+        cnd.limit(1, 1);
+        service.fetchLinksBatch(list, "pets", cnd);
+        assertEquals(3, selects.get());
+        assertEquals(1, list.get(0).getPets().size());
+        assertEquals("a", list.get(0).getPets().get(0).getName());
+    }
+
+    @Test
+    public void fillsArrayAndMapFields() {
+        List<Owner> list = dao.query(Owner.class, Cnd.orderBy().asc("id"));
+        LinkLoader.fetchLinks(dao, list, "^(petArray|petsByName)$", 100);
+        assertEquals(3, list.get(0).petArray.length);
+        assertEquals(0, list.get(2).petArray.length);
+        assertEquals(3, list.get(0).petsByName.size());
+        assertEquals(1, list.get(0).petsByName.get("a").getPersonId());
+        assertTrue(list.get(2).petsByName.isEmpty());
+    }
+
+    @Test
+    public void loadsOne() {
+        List<OwnedPet> list = dao.query(OwnedPet.class, Cnd.orderBy().asc("id"));
+        selects.set(0);
+        LinkLoader.fetchLinks(dao, list, "owner", 100);
+        assertEquals(1, selects.get());
+        assertEquals("p0", list.get(0).owner.getName());
+        assertEquals("p1", list.get(2).owner.getName());
+        dao.update(OwnedPet.class, org.nutz.dao.Chain.make("personId", 9), Cnd.where("id", "=", 1));
+        list = dao.query(OwnedPet.class, Cnd.orderBy().asc("id"));
+        LinkLoader.fetchLinks(dao, list, "owner", 100);
+        assertNull(list.get(0).owner);
+    }
+
+    @Test
+    public void queryByJoinUsesBatchesWithProjection() {
+        List<Person> list = service.queryByJoin(Cnd.orderBy().asc("id"), "pets", "^(id|name)$", new Pager(1, 10),
+                Cnd.orderBy().asc("name"), "^(id|personId|name)$");
+        assertEquals(2, selects.get());
+        assertEquals("a", list.get(0).getPets().get(0).getName());
+        assertEquals(0, list.get(0).getAge());
+    }
+
+    @Test
+    public void projectionWithoutLinkedFieldFallsBackPerObject() {
+        List<Person> list = service.queryByJoin(Cnd.orderBy().asc("id"), "pets", "^(id|name)$", new Pager(1, 10),
+                Pet.class, "^(id|name)$");
+        assertEquals(3, list.get(0).getPets().size());
+        assertEquals(1, list.get(1).getPets().size());
+        assertEquals(0, list.get(0).getPets().get(0).getPersonId());
+    }
+
+    @Test
+    public void disabledBatchUsesDaoFetchLinks() {
+        service.setLinkBatchSize(0);
+        List<Person> list = service.query(Cnd.orderBy().asc("id"), "pets");
+        assertEquals(4, selects.get());
+        assertEquals(3, list.get(0).getPets().size());
+    }
+
+    @Table("t_person")
+    public static class Owner {
+
+        @Id
+        private long id;
+
+        @Column
+        private String name;
+
+        @Many(target = Pet.class, field = "personId")
+        private Pet[] petArray;
+
+        @Many(field = "personId", key = "name")
+        private Map<String, Pet> petsByName;
+    }
+
+    @Table("t_pet")
+    public static class OwnedPet {
+
+        @Id
+        private long id;
+
+        @Column
+        private long personId;
+
+        @One(field = "personId")
+        private Person owner;
+    }
+}
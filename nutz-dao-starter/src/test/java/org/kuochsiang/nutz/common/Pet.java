@@ -0,0 +1,50 @@
+package org.kuochsiang.nutz.common;
+
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Id;
+import org.nutz.dao.entity.annotation.Table;
+
+@Table("t_pet")
+public class Pet {
+
+    @Id
+    private long id;
+
+    @Column
+    private long personId;
+
+    @Column
+    private String name;
+
+    public Pet() {
+    }
+
+    public Pet(long personId, String name) {
+        this.personId = personId;
+        this.name = name;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(long personId) {
+        this.personId = personId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,55 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.Dao;
+import org.nutz.dao.impl.NutDao;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ProjectionDaoTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(3), 100);
+    }
+
+    @Test
+    public void loadsOnlyTheFilteredFields() {
+        Person p = service.fetch(1L, "^(id|name)$");
+        assertEquals("p0", p.getName());
+        assertEquals(0, p.getAge());
+        List<Person> list = service.query("^(id|age)$", Cnd.orderBy().asc("id"));
+        assertEquals(3, list.size());
+        assertNull(list.get(0).getName());
+        assertEquals(21, list.get(1).getAge());
+    }
+
+    @Test
+    public void reusesTheViewForTheSameFilter() {
+        Dao a = service.projectionDao("^(id|name)$");
+        assertSame(a, service.projectionDao("^(id|name)$"));
+        assertNotSame(a, service.projectionDao("^(id|age)$"));
+        assertSame(a, service.projectionDao("^(id|name)$"));
+        assertSame(dao, service.projectionDao(null));
+    }
+
+    @Test
+    public void dropsViewsWhenTheDaoChanges() {
+        Dao a = service.projectionDao("^(id|name)$");
+        service.setDao(TestDaos.h2(Person.class, Pet.class));
+        assertNotSame(a, service.projectionDao("^(id|name)$"));
+    }
+}
@@ -0,0 +1,91 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Chain;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.ConnCallback;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.pager.Pager;
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryCacheTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 100);
+        service.setQueryCache(100, 60000);
+    }
+
+    @Test
+    public void servesRepeatedQueriesFromCache() {
+        assertEquals(3, service.query(Cnd.where("age", ">", 21)).size());
+        assertEquals(2, service.query(Cnd.where("age", ">", 21), new Pager(1, 2)).size());
+        assertEquals(3, service.count(Cnd.where("age", ">", 21)));
+        deleteBehindDao();
+        assertEquals(3, service.query(Cnd.where("age", ">", 21)).size());
+        assertEquals(2, service.query(Cnd.where("age", ">", 21), new Pager(1, 2)).size());
+        assertEquals(3, service.count(Cnd.where("age", ">", 21)));
+        assertEquals(3, service.getQueryCache().getHitCount());
+        assertEquals(0, service.query(Cnd.where("age", ">", 30)).size());
+    }
+
+    @Test
+    public void writesThroughDaoInvalidate() {
+        assertEquals(5, service.count(Cnd.NEW()));
+        new TestDaos.PersonService(dao).update(Chain.make("age", 30), Cnd.where("id", "=", 1));
+        assertEquals(1, service.query(Cnd.where("age", "=", 30)).size());
+        dao.execute(Sqls.create("DELETE FROM t_person WHERE age = 30"));
+        assertEquals(0, service.query(Cnd.where("age", "=", 30)).size());
+        assertEquals(4, service.count(Cnd.NEW()));
+    }
+
+    @Test
+    public void bypassedInTransaction() {
+        service.query(Cnd.where("age", ">", 21));
+        deleteBehindDao();
+        final int[] size = new int[1];
+        Trans.exec(new Atom() {
+            public void run() {
+                size[0] = service.query(Cnd.where("age", ">", 21)).size();
+            }
+        });
+        assertEquals(0, size[0]);
+    }
+
+    @Test
+    public void boundedByRows() {
+        service.setQueryCache(4, 60000);
+        service.query(Cnd.where("age", ">", 21));
+        service.query(Cnd.where("age", "<", 22));
+        assertEquals(1, service.getQueryCache().size());
+        assertEquals(2, service.getQueryCache().getRows());
+        assertEquals(1, service.getQueryCache().getEvictionCount());
+    }
+
+    private void deleteBehindDao() {
+        dao.run(new ConnCallback() {
+            public void invoke(Connection conn) throws Exception {
+                Statement st = conn.createStatement();
+                try {
+                    st.executeUpdate("DELETE FROM t_person");
+                } finally {
+                    st.close();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,175 @@
+package org.kuochsiang.nutz.common;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Id;
+import org.nutz.dao.entity.annotation.Table;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.impl.sql.run.NutDaoRunner;
+import org.nutz.lang.Each;
+import org.nutz.trans.Atom;
+import org.nutz.trans.Trans;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 主库和从库各用一个 H2 内存库, 两边数据不同, 按查询结果判断语句发往哪个库
+ */
+public class ReadWriteRouterTest {
+
+    private static final AtomicInteger SEQ = new AtomicInteger();
+
+    private NutDao primaryDao;
+
+    private NutDao replicaDao;
+
+    private ReadWriteRouter router;
+
+    private ItemService service;
+
+    @Before
+    public void setUp() {
+        int n = SEQ.incrementAndGet();
+        primaryDao = dao("rw_primary_" + n);
+        replicaDao = dao("rw_replica_" + n);
+        replicaDao.insert(new Item("replica"));
+        replicaDao.insert(new Item("replica"));
+
+        NutDaoRunner runner = new NutDaoRunner();
+        runner.setMeta(primaryDao.meta());
+        router = new ReadWriteRouter(runner, Collections.singletonList(replicaDao.getDataSource()));
+        primaryDao.setRunner(router);
+        service = new ItemService(primaryDao);
+    }
+
+    @Test
+    public void readsGoToReplica() {
+        assertEquals(2, service.count());
+        assertEquals(2, service.query(Cnd.where("name", "=", "replica")).size());
+    }
+
+    @Test
+    public void writesGoToPrimary() {
+        service.insert(new Item("primary"));
+        NutDao direct = new NutDao(primaryDao.getDataSource());
+        assertEquals(1, direct.count(Item.class, Cnd.where("name", "=", "primary")));
+        assertEquals(2, service.count());
+    }
+
+    @Test
+    public void transactionUsesPrimary() {
+        service.insert(new Item("primary"));
+        final int[] count = new int[1];
+        Trans.exec(new Atom() {
+            public void run() {
+                count[0] = service.count();
+            }
+        });
+        assertEquals(1, count[0]);
+    }
+
+    @Test
+    public void primaryForcesPrimary() {
+        int count = ReadWriteRouter.primary(new Callable<Integer>() {
+            public Integer call() {
+                return service.count();
+            }
+        });
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void readYourWritesWindow() throws InterruptedException {
+        router.setReadYourWrites(200);
+        service.insert(new Item("primary"));
+        assertEquals(1, service.count());
+        Thread.sleep(300);
+        assertEquals(2, service.count());
+    }
+
+    @Test
+    public void replicaOverridesReadYourWrites() {
+        router.setReadYourWrites(60000);
+        service.insert(new Item("primary"));
+        int count = ReadWriteRouter.replica(new Callable<Integer>() {
+            public Integer call() {
+                return service.count();
+            }
+        });
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void eachUsesPrimaryUnlessReplica() {
+        service.insert(new Item("primary"));
+        assertEquals(1, service.each(null, new Each<Item>() {
+            public void invoke(int index, Item ele, int length) {
+            }
+        }));
+        int count = ReadWriteRouter.replica(new Callable<Integer>() {
+            public Integer call() {
+                return service.each(null, new Each<Item>() {
+                    public void invoke(int index, Item ele, int length) {
+                        assertEquals("replica", ele.getName());
+                    }
+                });
+            }
+        });
+        assertEquals(2, count);
+    }
+
+    private static NutDao dao(String name) {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        NutDao dao = new NutDao(ds);
+        dao.create(Item.class, true);
+        return dao;
+    }
+
+    public static class ItemService extends BaseServiceImpl<Item> {
+
+        public ItemService(NutDao dao) {
+            super(dao);
+        }
+    }
+
+    @Table("t_rw_item")
+    public static class Item {
+
+        @Id
+        private long id;
+
+        @Column
+        private String name;
+
+        public Item() {
+        }
+
+        public Item(String name) {
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
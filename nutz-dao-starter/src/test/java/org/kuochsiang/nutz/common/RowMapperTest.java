@@ -0,0 +1,76 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.ConnCallback;
+import org.nutz.dao.QueryResult;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.pager.Pager;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RowMapperTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 100);
+    }
+
+    @Test
+    public void mapsColumnsInAnyOrder() {
+        List<Person> list = service.getByList("SELECT age, name, id FROM t_person ORDER BY id");
+        assertEquals(5, list.size());
+        assertEquals(1, list.get(0).getId());
+        assertEquals("p0", list.get(0).getName());
+        assertEquals(24, list.get(4).getAge());
+    }
+
+    @Test
+    public void missingAndNullColumnsKeepDefaults() {
+        dao.execute(Sqls.create("UPDATE t_person SET name = NULL WHERE id = 1"));
+        List<Person> list = service.getByList("SELECT id, name FROM t_person ORDER BY id");
+        assertNull(list.get(0).getName());
+        assertEquals(0, list.get(0).getAge());
+        assertEquals("p1", list.get(1).getName());
+    }
+
+    @Test
+    public void mapsVoAndPages() {
+        QueryResult qr = service.getPagerByList(Pet.class,
+                "SELECT id, id AS personId, name FROM t_person ORDER BY id", new Pager(2, 2));
+        List<?> list = qr.getList();
+        assertEquals(2, list.size());
+        assertEquals(3, ((Pet) list.get(0)).getPersonId());
+        assertEquals("p3", ((Pet) list.get(1)).getName());
+        assertEquals(5, qr.getPager().getRecordCount());
+    }
+
+    @Test
+    public void reusesTheMapperForTheSameColumns() throws Exception {
+        final Object[] mappers = new Object[2];
+        for (int i = 0; i < 2; i++) {
+            final int n = i;
+            dao.run(new ConnCallback() {
+                public void invoke(Connection conn) throws Exception {
+                    ResultSet rs = conn.createStatement().executeQuery("SELECT id, name FROM t_person");
+                    mappers[n] = RowMapper.of(dao.getEntity(Person.class), rs.getMetaData());
+                    rs.close();
+                }
+            });
+        }
+        assertSame(mappers[0], mappers[1]);
+    }
+}
@@ -0,0 +1,144 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.Condition;
+import org.nutz.dao.QueryResult;
+import org.nutz.dao.TableName;
+import org.nutz.dao.entity.Entity;
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Id;
+import org.nutz.dao.entity.annotation.Table;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.pager.Pager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ShardQueryTest {
+
+    private NutDao dao;
+
+    private OrderService service;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2();
+        service = new OrderService(dao);
+        service.setShardingStrategy(new ShardingStrategy() {
+            public Object shard(Entity<?> en, Object shardKey) {
+                return ((Number) shardKey).longValue() % 2;
+            }
+
+            public Collection<?> shards(Entity<?> en, Condition cnd) {
+                return Arrays.asList(0L, 1L);
+            }
+        });
+        for (final long shard : new long[]{0, 1}) {
+            TableName.run(shard, new Runnable() {
+                public void run() {
+                    dao.create(Order.class, true);
+                }
+            });
+        }
+        // 金额与 id 无关, 使排序结果在分片间交错
+        long[] amounts = {50, 10, 40, 20, 60, 30};
+        for (int i = 0; i < amounts.length; i++) {
+            final Order order = new Order(i + 1, amounts[i]);
+            service.onShard(order.id, new Callable<Object>() {
+                public Object call() {
+                    return dao.insert(order);
+                }
+            });
+        }
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void mergesShardsInOrder() {
+        List<Order> list = service.queryShards(Cnd.orderBy().desc("amount").asc("id"), new Pager(2, 2));
+        assertEquals(Arrays.asList(40L, 30L), amounts(list));
+        assertEquals(6, service.countShards(null));
+        assertNull(TableName.get());
+    }
+
+    @Test
+    public void ordersByColumnName() {
+        service.setShardExecutor(executor);
+        QueryResult qr = service.queryPagerShards(new Pager(1, 3), Cnd.orderBy().asc("order_amount"));
+        assertEquals(Arrays.asList(10L, 20L, 30L), amounts(qr.getList(Order.class)));
+        assertEquals(6, qr.getPager().getRecordCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonEntityOrder() {
+        service.queryShards(Cnd.orderBy().asc("amount + 1"), new Pager(1, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDeepPages() {
+        service.setMaxShardWindow(4);
+        service.queryShards(Cnd.orderBy().asc("id"), new Pager(2, 3));
+    }
+
+    @Test
+    public void entityCacheIsBypassedOnShards() {
+        service.setEntityCache(new LruEntityCache<Order>(100, 0));
+        assertEquals(50L, service.onShard(1L, new Callable<Order>() {
+            public Order call() {
+                return service.fetch(1L);
+            }
+        }).amount);
+        assertEquals(0, ((LruEntityCache<Order>) service.getEntityCache()).size());
+    }
+
+    private static List<Long> amounts(List<Order> list) {
+        List<Long> re = new ArrayList<Long>();
+        for (Order order : list) {
+            re.add(order.amount);
+        }
+        return re;
+    }
+
+    public static class OrderService extends BaseServiceImpl<Order> {
+
+        public OrderService(NutDao dao) {
+            super(dao);
+        }
+    }
+
+    @Table("t_order_${part}")
+    public static class Order {
+
+        @Id(auto = false)
+        private long id;
+
+        @Column("order_amount")
+        private long amount;
+
+        public Order() {
+        }
+
+        Order(long id, long amount) {
+            this.id = id;
+            this.amount = amount;
+        }
+    }
+}
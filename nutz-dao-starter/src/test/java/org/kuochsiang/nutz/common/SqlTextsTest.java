@@ -0,0 +1,68 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Test;
+import org.nutz.dao.QueryResult;
+import org.nutz.dao.pager.Pager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SqlTextsTest {
+
+    @Test
+    public void collapsesSimpleSelect() {
+        assertEquals("select count(*) FROM t_person p WHERE p.age > 1",
+                SqlTexts.toCountSql("SELECT p.id, p.name FROM t_person p WHERE p.age > 1 ORDER BY p.id;"));
+        assertEquals("select count(*) FROM t_person WHERE name IN (SELECT name FROM t_pet ORDER BY name)",
+                SqlTexts.toCountSql("SELECT * FROM t_person WHERE name IN (SELECT name FROM t_pet ORDER BY name)"));
+    }
+
+    @Test
+    public void wrapsWhenRowsDependOnTheSelect() {
+        String[] sqls = {
+                "SELECT DISTINCT name FROM t_person",
+                "SELECT name, count(*) FROM t_person GROUP BY name",
+                "SELECT max(age) FROM t_person",
+                "SELECT name FROM t_person UNION SELECT name FROM t_pet",
+                "SELECT name FROM t_person ORDER BY id LIMIT 5",
+                "WITH x AS (SELECT 1) SELECT * FROM x"
+        };
+        for (String sql : sqls) {
+            assertTrue(sql, SqlTexts.toCountSql(sql).startsWith("select count(1) count from ("));
+        }
+        assertEquals("select count(1) count from (SELECT name FROM t_person ORDER BY id LIMIT 5) t",
+                SqlTexts.toCountSql("SELECT name FROM t_person ORDER BY id LIMIT 5"));
+    }
+
+    @Test
+    public void ignoresKeywordsInStringsAndSubqueries() {
+        assertEquals("select count(*) FROM t_person WHERE name = 'group by' AND age IN (SELECT max(age) FROM t_person)",
+                SqlTexts.toCountSql("SELECT name FROM t_person WHERE name = 'group by' AND age IN (SELECT max(age) FROM t_person)"));
+    }
+
+    @Test
+    public void countsWithRewrittenAndCustomSql() {
+        TestDaos.PersonService service = new TestDaos.PersonService(TestDaos.h2(Person.class, Pet.class));
+        service.insertBatch(InsertBatchTest.people(5), 100);
+        String sql = "SELECT * FROM t_person ORDER BY id";
+        assertEquals(5, service.getPagerByList(sql, new Pager(1, 2)).getPager().getRecordCount());
+        QueryResult qr = service.getPagerByList(sql, "SELECT count(*) FROM t_person WHERE age < 22", null, new Pager(1, 2));
+        assertEquals(2, qr.getPager().getRecordCount());
+        assertEquals(2, qr.getList().size());
+    }
+
+    @Test
+    public void noCountReportsNextPage() {
+        TestDaos.PersonService service = new TestDaos.PersonService(TestDaos.h2(Person.class, Pet.class));
+        service.insertBatch(InsertBatchTest.people(5), 100);
+        String sql = "SELECT * FROM t_person ORDER BY id";
+        QueryResult qr = service.getPagerByListNoCount(sql, null, new Pager(2, 2));
+        assertEquals(2, qr.getList().size());
+        assertEquals("p2", ((Person) qr.getList().get(0)).getName());
+        assertTrue(qr.getPager().getPageNumber() < qr.getPager().getPageCount());
+        qr = service.getPagerByListNoCount(sql, null, new Pager(3, 2));
+        assertEquals(1, qr.getList().size());
+        assertFalse(qr.getPager().getPageNumber() < qr.getPager().getPageCount());
+    }
+}
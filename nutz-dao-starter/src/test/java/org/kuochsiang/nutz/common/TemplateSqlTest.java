@@ -0,0 +1,65 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.QueryResult;
+import org.nutz.dao.impl.NutDao;
+import org.nutz.dao.pager.Pager;
+import org.nutz.dao.sql.Sql;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TemplateSqlTest {
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        NutDao dao = TestDaos.h2(Person.class, Pet.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 100);
+    }
+
+    @Test
+    public void bindsParameters() {
+        List<Person> list = service.getByList("SELECT * FROM t_person WHERE age >= @min ORDER BY id", params("min", 22));
+        assertEquals(3, list.size());
+        assertEquals("p2", list.get(0).getName());
+        QueryResult qr = service.getByListVO(Pet.class, "SELECT id, name FROM t_person WHERE name = @name", params("name", "p4"));
+        assertEquals(1, qr.getList().size());
+    }
+
+    @Test
+    public void pagesWithParameters() {
+        QueryResult qr = service.getPagerByList("SELECT * FROM t_person WHERE age > @min ORDER BY id", params("min", 20), new Pager(2, 3));
+        assertEquals(4, qr.getPager().getRecordCount());
+        assertEquals(1, qr.getList().size());
+        assertEquals("p4", ((Person) qr.getList().get(0)).getName());
+    }
+
+    @Test
+    public void countDependsOnParameters() {
+        service.setCountCache(100, 60000);
+        String sql = "SELECT * FROM t_person WHERE age > @min";
+        assertEquals(4, service.getPagerByList(sql, params("min", 20), new Pager(1, 10)).getPager().getRecordCount());
+        assertEquals(1, service.getPagerByList(sql, params("min", 23), new Pager(1, 10)).getPager().getRecordCount());
+    }
+
+    @Test
+    public void reusesParsedTemplate() {
+        Sql a = TemplateSql.create("SELECT * FROM t_person WHERE id = @id", params("id", 1));
+        Sql b = TemplateSql.create("SELECT * FROM t_person WHERE id = @id", params("id", 2));
+        assertEquals(a.toPreparedStatement(), b.toPreparedStatement());
+        assertEquals(1, b.getParamMatrix().length);
+    }
+
+    private static Map<String, Object> params(String name, Object value) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(name, value);
+        return params;
+    }
+}
@@ -0,0 +1,31 @@
+package org.kuochsiang.nutz.common;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.nutz.dao.impl.NutDao;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的 H2 内存库, 每次调用都是一个新的库
+ */
+public abstract class TestDaos {
+
+    private static final AtomicInteger SEQ = new AtomicInteger();
+
+    public static NutDao h2(Class<?>... entities) {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:test_" + SEQ.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        NutDao dao = new NutDao(ds);
+        for (Class<?> klass : entities) {
+            dao.create(klass, true);
+        }
+        return dao;
+    }
+
+    public static class PersonService extends BaseServiceImpl<Person> {
+
+        public PersonService(NutDao dao) {
+            super(dao);
+        }
+    }
+}
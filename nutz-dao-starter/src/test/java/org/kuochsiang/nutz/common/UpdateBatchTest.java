@@ -0,0 +1,122 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Id;
+import org.nutz.dao.entity.annotation.Table;
+import org.nutz.dao.impl.NutDao;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class UpdateBatchTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class, Doc.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(5), 100);
+    }
+
+    @Test
+    public void updatesAllColumnsByPk() {
+        List<Person> list = service.query(Cnd.orderBy().asc("id"));
+        for (Person p : list) {
+            p.setAge(p.getAge() + 10);
+        }
+        list.get(4).setId(99);
+        assertArrayEquals(new int[]{1, 1, 1, 1, 0}, service.updateBatch(list, 2));
+        assertEquals(33, service.fetch(4L).getAge());
+        assertEquals(24, service.fetch(5L).getAge());
+    }
+
+    @Test
+    public void ignoresNullFields() {
+        dao.execute(Sqls.create("ALTER TABLE t_person ALTER COLUMN name SET NULL"));
+        Person a = new Person(null, 40);
+        a.setId(1);
+        Person b = new Person("renamed", 41);
+        b.setId(2);
+        Person c = new Person(null, 42);
+        c.setId(3);
+        assertArrayEquals(new int[]{1, 1, 1}, service.updateIgnoreNullBatch(Arrays.asList(a, b, c), 1));
+        assertEquals("p0", service.fetch(1L).getName());
+        assertEquals("renamed", service.fetch(2L).getName());
+        assertEquals(42, service.fetch(3L).getAge());
+        assertArrayEquals(new int[0], service.updateIgnoreNullBatch(null));
+    }
+
+    @Test
+    public void rollsBackAllChunksOnFailure() {
+        dao.execute(Sqls.create("ALTER TABLE t_person ALTER COLUMN name SET NOT NULL"));
+        List<Person> list = service.query(Cnd.orderBy().asc("id"));
+        for (Person p : list) {
+            p.setAge(50);
+        }
+        list.get(4).setName(null);
+        try {
+            service.updateBatch(list, 2);
+            fail();
+        } catch (RuntimeException e) {
+            // 回滚
+        }
+        assertEquals(0, service.count(Cnd.where("age", "=", 50)));
+    }
+
+    @Test
+    public void checksVersion() {
+        DocService docs = new DocService(dao);
+        docs.insertBatch(Arrays.asList(new Doc("a"), new Doc("b")), 100);
+        List<Doc> list = docs.query(Cnd.orderBy().asc("id"));
+        dao.execute(Sqls.create("UPDATE t_doc SET version = version + 1 WHERE id = 2"));
+        list.get(0).title = "a2";
+        list.get(1).title = "b2";
+        assertArrayEquals(new int[]{1, 0}, docs.updateBatch(list, 100));
+        assertEquals(1, list.get(0).version);
+        assertEquals(0, list.get(1).version);
+        Doc stored = docs.fetch(1L);
+        assertEquals("a2", stored.title);
+        assertEquals(1, stored.version);
+        assertEquals("b", docs.fetch(2L).title);
+        assertNull(docs.fetch(3L));
+    }
+
+    public static class DocService extends BaseServiceImpl<Doc> {
+
+        public DocService(NutDao dao) {
+            super(dao);
+        }
+    }
+
+    @Table("t_doc")
+    public static class Doc {
+
+        @Id
+        private long id;
+
+        @Column
+        private String title;
+
+        @Column(version = true)
+        private int version;
+
+        public Doc() {
+        }
+
+        Doc(String title) {
+            this.title = title;
+        }
+    }
+}
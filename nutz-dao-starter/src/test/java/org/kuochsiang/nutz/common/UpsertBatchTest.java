@@ -0,0 +1,179 @@
+package org.kuochsiang.nutz.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nutz.dao.Cnd;
+import org.nutz.dao.FieldFilter;
+import org.nutz.dao.Sqls;
+import org.nutz.dao.entity.Entity;
+import org.nutz.dao.entity.MappingField;
+import org.nutz.dao.entity.annotation.Column;
+import org.nutz.dao.entity.annotation.Name;
+import org.nutz.dao.entity.annotation.PK;
+import org.nutz.dao.entity.annotation.Table;
+import org.nutz.dao.impl.NutDao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class UpsertBatchTest {
+
+    private NutDao dao;
+
+    private TestDaos.PersonService service;
+
+    @Before
+    public void setUp() {
+        dao = TestDaos.h2(Person.class, Pet.class, Setting.class, Grade.class);
+        service = new TestDaos.PersonService(dao);
+        service.insertBatch(InsertBatchTest.people(3), 100);
+    }
+
+    @Test
+    public void mergesExistingAndNewRows() {
+        assertArrayEquals(new int[]{2, 2}, service.upsertBatch(mixed(), null, 2));
+        assertEquals(5, dao.count(Person.class));
+        assertEquals("x1", dao.fetch(Person.class, 1L).getName());
+        assertEquals(40, dao.fetch(Person.class, 10L).getAge());
+    }
+
+    @Test
+    public void autoIncrementWithoutIdIsInserted() {
+        List<Person> list = new ArrayList<Person>(Arrays.asList(new Person("new", 1)));
+        assertArrayEquals(new int[]{1}, service.upsertBatch(list, null));
+        assertEquals(4, list.get(0).getId());
+    }
+
+    @Test
+    public void updatesOnlySelectedFields() {
+        service.upsertBatch(mixed(), FieldFilter.create(Person.class, "^age$"));
+        Person p = dao.fetch(Person.class, 1L);
+        assertEquals("p0", p.getName());
+        assertEquals(31, p.getAge());
+        assertEquals("x10", dao.fetch(Person.class, 10L).getName());
+    }
+
+    @Test
+    public void fallbackSelectsThenInsertsAndUpdates() {
+        TestDaos.PersonService fallback = new TestDaos.PersonService(dao) {
+            protected String upsertSql(Entity<Person> en, List<MappingField> fields, List<MappingField> updates) {
+                return null;
+            }
+        };
+        assertArrayEquals(new int[]{2, 2}, fallback.upsertBatch(mixed(), null, 2));
+        assertEquals(5, dao.count(Person.class));
+        assertEquals("x2", dao.fetch(Person.class, 2L).getName());
+        assertEquals("x11", dao.fetch(Person.class, 11L).getName());
+    }
+
+    @Test
+    public void allChunksShareOneTransaction() {
+        dao.execute(Sqls.create("ALTER TABLE t_person ALTER COLUMN name SET NOT NULL"));
+        List<Person> list = mixed();
+        list.get(2).setName(null);
+        try {
+            service.upsertBatch(list, null, 2);
+            fail();
+        } catch (RuntimeException e) {
+            // 第二批失败
+        }
+        assertEquals(3, dao.count(Person.class));
+        assertEquals("p0", dao.fetch(Person.class, 1L).getName());
+    }
+
+    @Test
+    public void upsertClearsCountCache() {
+        service.setCountCache(100, 60000);
+        assertEquals(3, service.count(Cnd.NEW()));
+        service.upsertBatch(mixed(), null);
+        assertEquals(5, service.count(Cnd.NEW()));
+    }
+
+    @Test
+    public void insertOrUpdateById() {
+        Person p = new Person("n", 1);
+        BaseServiceImpl.insertOrUpdate(dao, p);
+        assertEquals(4, p.getId());
+        p.setName("m");
+        BaseServiceImpl.insertOrUpdate(dao, p);
+        assertEquals("m", dao.fetch(Person.class, 4L).getName());
+        assertEquals(4, dao.count(Person.class));
+    }
+
+    @Test
+    public void insertOrUpdateByName() {
+        BaseServiceImpl.insertOrUpdate(dao, new Setting("a", "1"));
+        BaseServiceImpl.insertOrUpdate(dao, new Setting("a", "2"));
+        BaseServiceImpl.insertOrUpdate(dao, new Setting("b", "3"));
+        assertEquals(2, dao.count(Setting.class));
+        assertEquals("2", dao.fetch(Setting.class, "a").value);
+    }
+
+    @Test
+    public void insertOrUpdateByCompositeKey() {
+        BaseServiceImpl.insertOrUpdate(dao, new Grade(1, 1, 60));
+        BaseServiceImpl.insertOrUpdate(dao, new Grade(1, 1, 90));
+        BaseServiceImpl.insertOrUpdate(dao, new Grade(1, 2, 70));
+        assertEquals(2, dao.count(Grade.class));
+        assertEquals(90, dao.fetchx(Grade.class, 1, 1).score);
+    }
+
+    /**
+     * id 1,2 已存在, 10,11 不存在
+     */
+    private static List<Person> mixed() {
+        List<Person> list = new ArrayList<Person>();
+        for (long id : new long[]{1, 2, 10, 11}) {
+            Person p = new Person("x" + id, 30 + (int) id);
+            p.setId(id);
+            list.add(p);
+        }
+        return list;
+    }
+
+    @Table("t_setting")
+    public static class Setting {
+
+        @Name
+        private String name;
+
+        @Column
+        private String value;
+
+        public Setting() {
+        }
+
+        Setting(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    @Table("t_grade")
+    @PK({"student", "course"})
+    public static class Grade {
+
+        @Column
+        private int student;
+
+        @Column
+        private int course;
+
+        @Column
+        private int score;
+
+        public Grade() {
+        }
+
+        Grade(int student, int course, int score) {
+            this.student = student;
+            this.course = course;
+            this.score = score;
+        }
+    }
+}